@@ -37,6 +37,7 @@ import android.webkit.WebView;
 import android.widget.GridView;
 import android.widget.ProgressBar;
 
+import java.io.File;
 import java.util.Date;
 import java.util.EmptyStackException;
 import java.util.Locale;
@@ -203,6 +204,7 @@ public class Pardus extends ScriptManagerActivity {
 					+ displayHeightPx + ", Scale: " + displayDensityScale
 					+ ", Density (dpi): " + displayDpi);
 		}
+        PardusStorageMigration.finish();
         imagePack = new PardusImagePack(getExternalFilesDir(null), getFilesDir());
 		if (imagePack.getPath() == null) {
 			Log.e(getClass().getSimpleName(),
@@ -215,7 +217,12 @@ public class Pardus extends ScriptManagerActivity {
 				Log.d(getClass().getSimpleName(),
 						"Pardus image pack directory set to " + imagePack.getPath());
 			}
+			PardusStorageMigration.start(imagePack.getPath(), getExternalFilesDir(null), getFilesDir());
 		}
+		LocalContentProxy.getInstance().setIntercepting(PardusPreferences.isInterceptImages());
+		LocalContentProxy.getInstance().setCacheSize(PardusPreferences.isImageCache()
+				? LocalContentProxy.getDefaultCacheSize(this) : 0);
+		LocalContentProxy.getInstance().setStatsFile(new File(getFilesDir(), "image_stats"));
 		// load the script store
 		scriptStore = new ScriptStoreSQLite(this);
 		scriptStore.open();
@@ -547,6 +554,7 @@ public class Pardus extends ScriptManagerActivity {
 			// open the login page if not logged in
 			browser.login(true);
 		}
+		PardusMessageJobService.cancel(this);
 		messageChecker.resume();
 		super.onResume();
 	}
@@ -571,6 +579,12 @@ public class Pardus extends ScriptManagerActivity {
 		browser.pauseTimers();
 		browser.onPause();
 		messageChecker.pause();
+		if (PardusPreferences.isBackgroundCheck() && !isFinishing() && !PardusPreferences.isLogoutOnHide()
+				&& browser.isLoggedIn() && browser.getUniverse() != null) {
+			// only notify about messages/logs arriving from now on
+			messageChecker.storeLastCounts();
+			PardusMessageJobService.schedule(this, browser.getUniverse());
+		}
 		if (scriptEditor != null
 				&& placeHistory.peek() != R.id.place_scripteditor) {
 			scriptEditor = null;
@@ -578,7 +592,7 @@ public class Pardus extends ScriptManagerActivity {
 		if (scriptStore != null) {
 			scriptStore.close();
 		}
-        LocalContentProxy.getInstance().stop();
+        LocalContentProxy.getInstance().pause();
 		super.onPause();
 	}
 
@@ -602,6 +616,20 @@ public class Pardus extends ScriptManagerActivity {
 		super.onStop();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see android.app.Activity#onTrimMemory(int)
+	 */
+	@Override
+	public void onTrimMemory(int level) {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(), "Trimming memory (level " + level + ")");
+		}
+		super.onTrimMemory(level);
+		LocalContentProxy.getInstance().trimMemory(level);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fetches the game's own AJAX requests in place of the web view to read the new messages/logs counters they carry,
+ * which saves separate checks of the msgFrame while the user is playing.
+ */
+final class PardusAjaxTap {
+
+    private static final String AJAX_PAGE = ".pardus.at/main_ajax.php";
+
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private PardusAjaxTap() {
+    }
+
+    /**
+     * @param request
+     *         a request of the web view
+     * @return true if the request is a game AJAX request that can be fetched in place of the web view
+     */
+    static boolean isTapped(WebResourceRequest request) {
+        // bodies of POST requests are not available
+        return "GET".equals(request.getMethod()) && request.getUrl().toString().contains(AJAX_PAGE);
+    }
+
+    /**
+     * Fetches a game AJAX request and hands the counters found in its response to the message checker. Called on a
+     * web view thread.
+     *
+     * @param request
+     *         a request for which {@link #isTapped(WebResourceRequest)} is true
+     * @param messageChecker
+     *         the message checker to update
+     * @return the response to pass to the web view, an error response if the request may have reached the server,
+     * or null to let the web view fetch it itself if it has not been sent
+     */
+    static WebResourceResponse fetch(WebResourceRequest request, PardusMessageChecker messageChecker) {
+        String url = request.getUrl().toString();
+        CookieManager cookieManager = CookieManager.getInstance();
+        HttpURLConnection urlConnection;
+        try {
+            urlConnection = (HttpURLConnection) new URL(url).openConnection();
+            urlConnection.setConnectTimeout(TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(TIMEOUT_MILLIS);
+            for (Map.Entry<String, String> header : request.getRequestHeaders().entrySet()) {
+                String lowerName = header.getKey().toLowerCase(Locale.ENGLISH);
+                // responses are decompressed by the connection and must not be 304 Not Modified, which the web
+                // view cannot receive from here
+                if (!lowerName.equals("accept-encoding") && !lowerName.startsWith("if-")) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            String cookies = cookieManager.getCookie(url);
+            if (cookies != null) {
+                urlConnection.setRequestProperty("Cookie", cookies);
+            }
+            urlConnection.connect();
+        } catch (IOException e) {
+            // nothing has been sent, the web view can send the request itself
+            Log.w(PardusAjaxTap.class.getSimpleName(), "Unable to connect for " + url, e);
+            return null;
+        }
+        try {
+            int status = urlConnection.getResponseCode();
+            if (status >= HttpURLConnection.HTTP_MULT_CHOICE && status < HttpURLConnection.HTTP_BAD_REQUEST) {
+                // redirects the connection does not follow, e.g. to another protocol, cannot be passed on
+                Log.w(PardusAjaxTap.class.getSimpleName(), "Unexpected response code " + status + " for " + url);
+                urlConnection.disconnect();
+                return errorResponse(HttpURLConnection.HTTP_BAD_GATEWAY, "Bad Gateway");
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+                String name = header.getKey();
+                if (name == null) {
+                    continue;
+                }
+                String lowerName = name.toLowerCase(Locale.ENGLISH);
+                if (lowerName.equals("set-cookie")) {
+                    for (String cookie : header.getValue()) {
+                        cookieManager.setCookie(url, cookie);
+                    }
+                } else if (!lowerName.equals("content-encoding") && !lowerName.equals("content-length")) {
+                    headers.put(name, String.join(", ", header.getValue()));
+                }
+            }
+            // read completely, which returns the connection to the keep-alive pool
+            InputStream in = (status >= HttpURLConnection.HTTP_BAD_REQUEST) ? urlConnection.getErrorStream()
+                    : urlConnection.getInputStream();
+            byte[] body = (in == null) ? new byte[0] : readFully(in);
+            String contentType = urlConnection.getContentType();
+            String mimeType = "text/html";
+            Charset charset = StandardCharsets.UTF_8;
+            if (contentType != null) {
+                String[] parts = contentType.split(";");
+                mimeType = parts[0].trim();
+                for (int i = 1; i < parts.length; i++) {
+                    String part = parts[i].trim();
+                    if (part.toLowerCase(Locale.ENGLISH).startsWith("charset=")) {
+                        try {
+                            charset = Charset.forName(part.substring(8).replace("\"", ""));
+                        } catch (IllegalArgumentException ignored) {
+                            // keep the default
+                        }
+                    }
+                }
+            }
+            if (status == HttpURLConnection.HTTP_OK) {
+                PardusMessageCounts counts = PardusMessageCounts.parse(new InputStreamReader(
+                        new ByteArrayInputStream(body), charset));
+                if (counts.isEmpty()) {
+                    if (BuildConfig.DEBUG) {
+                        Log.v(PardusAjaxTap.class.getSimpleName(), "No counters in response to " + url);
+                    }
+                } else {
+                    messageChecker.onCountsObserved(counts);
+                }
+            }
+            String reason = urlConnection.getResponseMessage();
+            if (reason == null || reason.isEmpty()) {
+                reason = (status == HttpURLConnection.HTTP_OK) ? "OK" : Integer.toString(status);
+            }
+            return new WebResourceResponse(mimeType, charset.name(), status, reason, headers,
+                    new ByteArrayInputStream(body));
+        } catch (SocketTimeoutException e) {
+            // the server may have processed the request already, sending it again could repeat a game action
+            Log.w(PardusAjaxTap.class.getSimpleName(), "Timeout fetching " + url, e);
+            urlConnection.disconnect();
+            return errorResponse(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, "Gateway Timeout");
+        } catch (IOException | RuntimeException e) {
+            Log.w(PardusAjaxTap.class.getSimpleName(), "Unable to fetch " + url, e);
+            urlConnection.disconnect();
+            return errorResponse(HttpURLConnection.HTTP_BAD_GATEWAY, "Bad Gateway");
+        }
+    }
+
+    /**
+     * @return an empty response with the status to report a request that failed after it had been sent
+     */
+    private static WebResourceResponse errorResponse(int status, String reason) {
+        return new WebResourceResponse("text/plain", "UTF-8", status, reason, new HashMap<>(),
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = input.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
@@ -25,21 +25,63 @@ import android.util.Log;
 import android.webkit.DownloadListener;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import at.pardus.android.content.ImagePackLayers;
+import at.pardus.android.content.LocalContentProxy;
+import at.pardus.android.content.WebpTranscoder;
 
 /**
  * Class handling image pack downloads.
  */
 public class PardusDownloadListener implements DownloadListener {
 
+    /**
+     * Number of connections to download image packs over in segmented mode.
+     */
+    private static final int DOWNLOAD_CONNECTIONS = 4;
+
+    /**
+     * Appended to storageDir to get the directory new image packs are
+     * installed to before they replace the old one.
+     */
+    private static final String STAGING_SUFFIX = ".staging";
+
+    /**
+     * Appended to storageDir to get the directory a replaced image pack is
+     * moved to until it has been deleted.
+     */
+    private static final String OLD_SUFFIX = ".old";
+
 	private String storageDir;
 
 	private String updateStorageDir;
@@ -82,14 +124,21 @@ public class PardusDownloadListener implements DownloadListener {
                 return;
             }
             String message = msg.getData().getString("message");
-            if (message != null) {
+            String status = msg.getData().getString("status");
+            if (status != null) {
+                // update the message of the current dialog
+                if (dialog != null) {
+                    dialog.setMessage(status);
+                }
+            } else if (message != null) {
                 if (dialog != null) {
                     // remove old dialog
                     dialog.dismiss();
                 }
                 switch (message) {
                     case "":
-                        // move to login page
+                        // drop image pack files cached before the installation and move to login page
+                        browser.clearCacheOnImagePackChange();
                         browser.login(true);
                         break;
                     case "error":
@@ -153,35 +202,88 @@ public class PardusDownloadListener implements DownloadListener {
 		}
 
 		/**
-		 * Downloads, unzips and sets the new image pack path.
+		 * Downloads, unzips (or stores the archive) and sets the new image pack
+		 * path.
 		 */
 		private void getImagePack() {
-			if (BuildConfig.DEBUG) {
-				Log.d(this.getClass().getSimpleName(), "Downloading");
-			}
-			if (downloadFile(url, contentLength)) {
-				// successfully downloaded
-				if (BuildConfig.DEBUG) {
-					Log.d(this.getClass().getSimpleName(), "Unzipping");
+			boolean update = url.contains("/update_");
+			// full installs go to a staging directory next to the live pack,
+			// which keeps being served until the new one is swapped in; updates
+			// go to a staging layer, which is added on top once complete
+			String targetDir = update ? prepareUpdateLayer() : prepareStagingDir();
+			boolean installed;
+			if (targetDir == null) {
+				installed = false;
+			} else if (!update && PardusPreferences.isImagePackArchive()) {
+				// updates are always extracted, overriding archived files
+				installed = downloadFile(url, contentLength) && installArchive(targetDir);
+				installed = installed && indexFiles(targetDir, false, null);
+			} else {
+				List<String> files = new ArrayList<>();
+				installed = false;
+				boolean done = false;
+				if (update) {
+					if (BuildConfig.DEBUG) {
+						Log.d(this.getClass().getSimpleName(), "Downloading changed files");
+					}
+					done = installed = updateFiles(targetDir, files);
+					if (!done) {
+						// fall back to the cumulative update archive
+						files.clear();
+					}
 				}
-				boolean update = url.contains("/update_");
-				if (unzipFile(update)) {
-					// successfully unzipped and moved
+				if (!done && PardusPreferences.isStreamInstall()) {
 					if (BuildConfig.DEBUG) {
-						Log.d(this.getClass().getSimpleName(),
-								"Storing image pack location");
+						Log.d(this.getClass().getSimpleName(), "Downloading and unzipping");
+					}
+					try {
+						installed = streamFile(url, contentLength, targetDir, files);
+						done = true;
+					} catch (ZipException e) {
+						// e.g. stored entries with data descriptors cannot be streamed
+						Log.w(this.getClass().getSimpleName(), "Unable to unzip while downloading", e);
+						files.clear();
 					}
-					PardusPreferences.setImagePath(update ? updateStorageDir
-							: storageDir);
-					// make ui thread switch to login page
-					setDialogMessage("");
-				} else {
-					// unzipping failed
-					handler.dismissDialog();
-					setDialogMessage("error");
 				}
+				if (!done) {
+					if (BuildConfig.DEBUG) {
+						Log.d(this.getClass().getSimpleName(), "Downloading");
+					}
+					if (downloadFile(url, contentLength)) {
+						if (BuildConfig.DEBUG) {
+							Log.d(this.getClass().getSimpleName(), "Unzipping");
+						}
+						installed = unzipFile(targetDir, files);
+					}
+				}
+				installed = installed && indexFiles(targetDir, update, files)
+						&& dedupeFiles(targetDir, files) && transcodeFiles(targetDir, files);
+			}
+			File oldDir = new File(storageDir + OLD_SUFFIX);
+			if (targetDir != null) {
+				installed = installed && (update ? commitUpdateLayer(targetDir) : swapIn(targetDir, oldDir));
+				if (!installed) {
+					deleteDirInBackground(new File(targetDir));
+				}
+			}
+			if (installed) {
+				// successfully unzipped and moved
+				if (BuildConfig.DEBUG) {
+					Log.d(this.getClass().getSimpleName(),
+							"Storing image pack location");
+				}
+				String imagePath = update ? updateStorageDir : storageDir;
+				PardusImagePack.updateIndex(imagePath);
+				PardusPreferences.setImagePath(imagePath);
+				// drop files cached before the (update) installation
+				LocalContentProxy.getInstance().invalidate();
+				if (!update) {
+					deleteDirInBackground(oldDir);
+				}
+				// make ui thread switch to login page
+				setDialogMessage("");
 			} else {
-				// downloading failed
+				// downloading or unzipping failed
 				handler.dismissDialog();
 				setDialogMessage("error");
 			}
@@ -219,6 +321,20 @@ public class PardusDownloadListener implements DownloadListener {
 		handler.sendMessage(msg);
 	}
 
+	/**
+	 * Changes the message of the current progress dialog.
+	 *
+	 * @param status
+	 *            message text
+	 */
+	private void setDialogStatus(String status) {
+		Message msg = handler.obtainMessage();
+		Bundle b = new Bundle();
+		b.putString("status", status);
+		msg.setData(b);
+		handler.sendMessage(msg);
+	}
+
 	/**
 	 * Sets a new progress value.
 	 * 
@@ -232,6 +348,21 @@ public class PardusDownloadListener implements DownloadListener {
 		handler.sendMessage(msg);
 	}
 
+	/**
+	 * Sets a new progress value and max.
+	 *
+	 * @param progress
+	 *            new progress
+	 * @param max
+	 *            new max
+	 */
+    private void setDialogProgress(int progress, int max) {
+		Message msg = handler.obtainMessage();
+		msg.arg1 = progress;
+		msg.arg2 = max;
+		handler.sendMessage(msg);
+	}
+
 	/**
 	 * Sets a new progress max and resets the progress value to 0.
 	 * 
@@ -246,68 +377,541 @@ public class PardusDownloadListener implements DownloadListener {
 	}
 
 	/**
-	 * Unzips a file.
+	 * Unzips a file. Entries are extracted by a pool of workers, one per core,
+	 * each reading the archive through its own handle and claiming batches of
+	 * consecutive entries.
 	 * 
-	 * @param update
-	 *            true to extract files into updateStorageDir and keep old
-	 *            files, false to extract files into storageDir and delete any
-	 *            old files first
+	 * @param targetDir
+	 *            the directory to extract files into, existing files are
+	 *            overwritten
+	 * @param files
+	 *            list to add the paths of the extracted files to
 	 * @return true if successful, false else
 	 */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    private boolean unzipFile(boolean update) {
+    private boolean unzipFile(String targetDir, List<String> files) {
         setDialogMessage("Unzipping ...");
-        String targetDir;
-        if (update) {
-            targetDir = updateStorageDir;
-        } else {
-            targetDir = storageDir;
-            // delete old image pack files
-            deleteDir(new File(targetDir));
-            new File(targetDir).mkdir();
+        ExecutorService workers = null;
+        try {
+            List<String> names = new ArrayList<>();
+            Set<File> dirs = new HashSet<>();
+            try (ZipFile zipFile = new ZipFile(cacheFile)) {
+                Enumeration<? extends ZipEntry> zipFiles = zipFile.entries();
+                while (zipFiles.hasMoreElements()) {
+                    ZipEntry zipEntry = zipFiles.nextElement();
+                    if (zipEntry.isDirectory()) {
+                        // directories will be created for the files below
+                        continue;
+                    }
+                    names.add(zipEntry.getName());
+                    dirs.add(entryFile(targetDir, zipEntry.getName()).getParentFile());
+                }
+            }
+            // create all directories up front so workers never race to create them
+            for (File dir : dirs) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    Log.e(this.getClass().getSimpleName(), "Unable to create directory");
+                    return false;
+                }
+            }
+            setDialogMax(names.size());
+            int numWorkers = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, names.size() / 50));
+            workers = Executors.newFixedThreadPool(numWorkers);
+            AtomicInteger nextEntry = new AtomicInteger();
+            AtomicInteger filesExtracted = new AtomicInteger();
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < numWorkers; i++) {
+                results.add(workers.submit(() -> {
+                    extractEntries(targetDir, names, nextEntry, filesExtracted);
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+            files.addAll(names);
+        } catch (Exception e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            new File(cacheFile).delete();
         }
+        return true;
+	}
+
+    /**
+     * Resolves the file to extract a zip entry to, rejecting entries that
+     * would end up outside the target directory.
+     *
+     * @param targetDir
+     *            the directory to extract to
+     * @param name
+     *            the name of the zip entry
+     * @return the file to extract the entry to
+     * @throws IOException
+     *             if the entry's path leaves the target directory
+     */
+    private static File entryFile(String targetDir, String name) throws IOException {
+        File dir = new File(targetDir);
+        File file = new File(dir, name);
+        if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            throw new IOException("Invalid entry name " + name);
+        }
+        return file;
+    }
+
+    /**
+     * Extracts batches of entries from cacheFile until none are left. Runs on
+     * a worker thread.
+     *
+     * @param targetDir
+     *            the directory to extract the entries to, with all required
+     *            subdirectories present
+     * @param names
+     *            the names of all file entries
+     * @param nextEntry
+     *            the index of the next entry no worker has claimed yet
+     * @param filesExtracted
+     *            the number of files extracted by all workers
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    private void extractEntries(String targetDir, List<String> names, AtomicInteger nextEntry,
+                                AtomicInteger filesExtracted) throws IOException {
+        final int batchSize = 32;
+        byte[] buffer = new byte[65536];
         try (ZipFile zipFile = new ZipFile(cacheFile)) {
-            setDialogMax(zipFile.size());
-            int filesExtracted = 0;
-            Enumeration<? extends ZipEntry> zipFiles = zipFile.entries();
-            // extract new image pack archive
-            while (zipFiles.hasMoreElements()) {
-                ZipEntry zipEntry = zipFiles.nextElement();
+            int start;
+            while ((start = nextEntry.getAndAdd(batchSize)) < names.size()) {
+                int end = Math.min(start + batchSize, names.size());
+                for (int i = start; i < end; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Extraction cancelled");
+                    }
+                    ZipEntry zipEntry = zipFile.getEntry(names.get(i));
+                    try (InputStream in = zipFile.getInputStream(zipEntry);
+                         FileOutputStream fos = new FileOutputStream(entryFile(targetDir, zipEntry.getName()))) {
+                        int bytesRead;
+                        while ((bytesRead = in.read(buffer)) != -1) {
+                            fos.write(buffer, 0, bytesRead);
+                        }
+                    }
+                    int extracted = filesExtracted.incrementAndGet();
+                    if (extracted % 50 == 0) {
+                        setDialogProgress(extracted);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the sizes and hashes of installed files in the image pack's
+     * manifest, which lets later updates fetch only changed files. Updates
+     * without a previous manifest are not recorded as the manifest would be
+     * incomplete. The manifest is optional, so failing to write it does not
+     * fail the installation.
+     *
+     * @param targetDir
+     *            the directory the files have been installed to
+     * @param update
+     *            true to add the files to the image pack's current manifest
+     *            and store the result in the update layer, false to create a
+     *            new one
+     * @param files
+     *            the paths of the installed files, null if the image pack has
+     *            been installed as archive
+     * @return true
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private boolean indexFiles(String targetDir, boolean update, List<String> files) {
+        File root = new File(targetDir);
+        PardusImagePackManifest manifest = update ? PardusImagePackManifest.read(
+                ImagePackLayers.locate(new File(updateStorageDir), PardusImagePackManifest.FILE_NAME))
+                : new PardusImagePackManifest();
+        if (manifest == null) {
+            return true;
+        }
+        setDialogMessage("Indexing ...");
+        try {
+            if (files == null) {
+                manifest.hashArchive(new File(root, LocalContentProxy.ARCHIVE_NAME));
+            } else {
+                manifest.hashFiles(root, files, (processed, total) -> {
+                    if (processed % 50 == 0 || processed == total) {
+                        setDialogProgress(processed, total);
+                    }
+                });
+            }
+            manifest.write(root);
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            // an outdated manifest would make updates skip files
+            new File(root, PardusImagePackManifest.FILE_NAME).delete();
+        }
+        return true;
+    }
+
+    /**
+     * Stores extracted files with identical content only once by hard
+     * linking them, using the hashes recorded in the manifest written to the
+     * directory. Deduplication is optional, so failing to link files does not
+     * fail the installation.
+     *
+     * @param targetDir
+     *            the directory the files have been extracted to
+     * @param files
+     *            the paths of the extracted files
+     * @return true
+     */
+    private boolean dedupeFiles(String targetDir, List<String> files) {
+        File root = new File(targetDir);
+        PardusImagePackManifest manifest = PardusImagePackManifest.read(root);
+        if (manifest == null) {
+            return true;
+        }
+        long freed = manifest.linkDuplicates(root, files);
+        if (BuildConfig.DEBUG) {
+            Log.d(this.getClass().getSimpleName(), "Deduplicating files freed " + (freed / 1024) + " KB");
+        }
+        return true;
+    }
+
+    /**
+     * Updates the image pack in updateStorageDir by downloading only the
+     * files that differ from the manifest published at the image pack's
+     * source URL into an update layer. Files are fetched concurrently and
+     * verified; nfo_upd is fetched last.
+     *
+     * @param targetDir
+     *            the update layer to download the files into
+     * @param files
+     *            list to add the paths of the updated files to
+     * @return true if successful, false if the image pack or its source has
+     *         no manifest or any file could not be updated
+     */
+    private boolean updateFiles(String targetDir, List<String> files) {
+        File root = new File(targetDir);
+        String srcUrl = new PardusImagePack(updateStorageDir).getSrcUrl();
+        PardusImagePackManifest local = PardusImagePackManifest.read(
+                ImagePackLayers.locate(new File(updateStorageDir), PardusImagePackManifest.FILE_NAME));
+        if (srcUrl == null || local == null) {
+            return false;
+        }
+        setDialogMessage("Checking for changed files ...");
+        PardusImagePackManifest remote;
+        try {
+            remote = PardusImagePackManifest.fetch(srcUrl);
+        } catch (IOException e) {
+            Log.w(this.getClass().getSimpleName(), "No manifest at " + srcUrl, e);
+            return false;
+        }
+        List<String> changed = local.diff(remote);
+        // the version file marks the update as complete
+        changed.remove("nfo_upd");
+        changed.add("nfo_upd");
+        if (BuildConfig.DEBUG) {
+            Log.d(this.getClass().getSimpleName(), changed.size() + " files changed");
+        }
+        setDialogMessage("Downloading " + changed.size() + " changed files ...");
+        setDialogProgress(0, changed.size());
+        List<String> pending = changed.subList(0, changed.size() - 1);
+        AtomicInteger filesUpdated = new AtomicInteger();
+        ExecutorService downloaders = Executors.newFixedThreadPool(DOWNLOAD_CONNECTIONS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String path : pending) {
+            results.add(downloaders.submit(() -> {
+                boolean updated = remote.fetchFile(srcUrl, root, path);
+                int n = filesUpdated.incrementAndGet();
+                if (n % 10 == 0) {
+                    setDialogProgress(n, changed.size());
+                }
+                return updated;
+            }));
+        }
+        downloaders.shutdown();
+        boolean updated = true;
+        try {
+            for (Future<Boolean> result : results) {
+                updated &= result.get();
+            }
+        } catch (Exception e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            downloaders.shutdownNow();
+            updated = false;
+        }
+        if (!updated || !remote.fetchFile(srcUrl, root, "nfo_upd")) {
+            return false;
+        }
+        // indexed with the other installed files, which extends the manifest
+        files.addAll(changed);
+        return true;
+    }
+
+    /**
+     * Creates WebP variants of extracted image pack files if enabled, else
+     * drops variants of files replaced by an update. Variants are optional,
+     * so failing to write them does not fail the installation.
+     *
+     * @param targetDir
+     *            the directory the files have been extracted to
+     * @param files
+     *            the paths of the extracted files
+     * @return true
+     */
+    private boolean transcodeFiles(String targetDir, List<String> files) {
+        File root = new File(targetDir);
+        try {
+            if (!PardusPreferences.isImagePackWebp() || !WebpTranscoder.isSupported()) {
+                WebpTranscoder.dropVariants(root, files);
+                return true;
+            }
+            setDialogMessage("Optimizing images ...");
+            int tileSize = PardusPreferences.isImagePackDownscale() ? PardusPreferences.getDisplayedTileSize()
+                    : WebpTranscoder.TILE_SIZE;
+            new WebpTranscoder(root, tileSize).transcode(files, (processed, total) -> {
+                if (processed % 50 == 0 || processed == total) {
+                    setDialogProgress(processed, total);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+        }
+        return true;
+    }
+
+    /**
+     * Downloads a zip file and extracts it while downloading. Entries are
+     * inflated as their bytes arrive and handed to a pool of writers, so
+     * network transfer, inflation and file writes overlap and the archive
+     * itself is never written to storage.
+     *
+     * @param url
+     *            URL to download
+     * @param contentLength
+     *            size of the download
+     * @param targetDir
+     *            the directory to extract files into, existing files are
+     *            overwritten
+     * @param files
+     *            list to add the paths of the extracted files to
+     * @return true if successful, false else
+     * @throws ZipException
+     *             if the archive's format does not allow extracting it while
+     *             downloading
+     */
+    private boolean streamFile(String url, long contentLength, String targetDir, List<String> files)
+            throws ZipException {
+        setDialogMessage("Downloading and unzipping ...");
+        setDialogMax((int) (contentLength / 1024));
+        String expectedSha256 = PardusDownloader.fetchPublishedSha256(url);
+        // reconnects where it left off if the connection drops
+        PardusDownloader downloader = new PardusDownloader(url, null, null);
+        InputStream in;
+        try {
+            in = downloader.openStream();
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+        // writers take files off the reading thread, which writes itself when they fall behind
+        int numWriters = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        ThreadPoolExecutor writers = new ThreadPoolExecutor(numWriters, numWriters, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(64), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicReference<IOException> writeError = new AtomicReference<>();
+        AtomicInteger filesWritten = new AtomicInteger();
+        try (CountingInputStream cis = new CountingInputStream(in);
+             ZipInputStream zis = new ZipInputStream(new BufferedInputStream(cis, 10240))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zis.getNextEntry()) != null && writeError.get() == null) {
                 if (zipEntry.isDirectory()) {
-                    // directories will be created as needed below
                     continue;
                 }
-                File file = new File(targetDir, zipEntry.getName());
-                // create directory path if needed
-                if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
-                    Log.e(this.getClass().getSimpleName(), "Unable to create directory");
-                    return false;
-                }
-                // extract file
-                try (FileOutputStream fos = new FileOutputStream(file); BufferedInputStream bis = new
-                        BufferedInputStream(zipFile.getInputStream(zipEntry), 10240)) {
-                    byte[] buffer = new byte[10240];
-                    int bytesRead;
-                    while ((bytesRead = bis.read(buffer, 0, 10240)) != -1) {
-                        fos.write(buffer, 0, bytesRead);
+                String name = zipEntry.getName();
+                File file = entryFile(targetDir, name);
+                byte[] data = readEntry(zis, zipEntry.getSize());
+                files.add(name);
+                writers.execute(() -> {
+                    try {
+                        writeFile(file, data);
+                    } catch (IOException e) {
+                        writeError.compareAndSet(null, e);
+                    }
+                    int written = filesWritten.incrementAndGet();
+                    if (written % 50 == 0) {
+                        setDialogStatus("Downloading and unzipping ... (" + written + " files)");
                     }
+                });
+            }
+            if (expectedSha256 != null) {
+                // hash the rest of the archive, e.g. its central directory
+                byte[] buffer = new byte[10240];
+                while (writeError.get() == null && cis.read(buffer) != -1) {
+                    // discard
                 }
-                filesExtracted++;
-                if (filesExtracted % 50 == 0) {
-                    setDialogProgress(filesExtracted);
+            }
+        } catch (ZipException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        } finally {
+            writers.shutdown();
+            try {
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writeError.get() != null) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(writeError.get()));
+            return false;
+        }
+        if (!checkSha256(downloader, expectedSha256)) {
+            return false;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(this.getClass().getSimpleName(), "Extracted " + files.size() + " files while downloading");
+        }
+        return true;
+    }
+
+    /**
+     * Reads the remaining data of the current zip entry.
+     *
+     * @param zis
+     *            stream positioned at the start of an entry's data
+     * @param size
+     *            the entry's uncompressed size, -1 if unknown
+     * @return the entry's data
+     * @throws IOException
+     *             if reading fails
+     */
+    private static byte[] readEntry(ZipInputStream zis, long size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((size > 0) ? (int) size : 10240);
+        byte[] buffer = new byte[10240];
+        int bytesRead;
+        while ((bytesRead = zis.read(buffer, 0, 10240)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a file, creating its directory if needed. May be called by
+     * several threads at once.
+     *
+     * @param file
+     *            the file to write
+     * @param data
+     *            the file's content
+     * @throws IOException
+     *             if writing fails
+     */
+    private static void writeFile(File file, byte[] data) throws IOException {
+        File dir = file.getParentFile();
+        // another writer may be creating the same directory concurrently
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(data);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a download and reports them as progress.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        private long reported = 0;
+
+        /**
+         * @param in
+         *            the stream to count
+         */
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                count(bytesRead);
+            }
+            return bytesRead;
+        }
+
+        /**
+         * Adds to the count and updates the progress every 100 KB.
+         */
+        private void count(int bytesRead) {
+            count += bytesRead;
+            if (count - reported >= 102400) {
+                reported = count;
+                setDialogProgress((int) (count / 1024));
+            }
+        }
+
+    }
+
+    /**
+     * Moves the downloaded archive into a directory to serve the image pack
+     * from without extracting it.
+     *
+     * @param targetDir
+     *            the directory to move the archive into
+     * @return true if successful, false else
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private boolean installArchive(String targetDir) {
+        setDialogMessage("Installing ...");
+        File source = new File(cacheFile);
+        File target = new File(targetDir, LocalContentProxy.ARCHIVE_NAME);
+        try {
+            // make sure the archive is intact before it replaces the old pack
+            new ZipFile(source).close();
+            if (!source.renameTo(target)) {
+                // cache and storage directory are on different file systems
+                setDialogMax((int) (source.length() / 1024));
+                try (FileChannel in = new FileInputStream(source).getChannel();
+                     FileChannel out = new FileOutputStream(target).getChannel()) {
+                    long size = in.size();
+                    long copied = 0;
+                    while (copied < size) {
+                        copied += in.transferTo(copied, Math.min(size - copied, 1048576), out);
+                        setDialogProgress((int) (copied / 1024));
+                    }
                 }
             }
         } catch (Exception e) {
             Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            target.delete();
             return false;
         } finally {
-            new File(cacheFile).delete();
+            source.delete();
         }
         return true;
-	}
+    }
 
 	/**
-	 * Downloads a file and saves it as cacheFile.
+	 * Downloads a file and saves it as cacheFile. Resumes an interrupted
+	 * download of the same URL, also across app restarts.
 	 * 
 	 * @param url
 	 *            URL to download
@@ -319,41 +923,48 @@ public class PardusDownloadListener implements DownloadListener {
     private boolean downloadFile(String url, long contentLength) {
         setDialogMessage("Downloading ...");
         setDialogMax((int) (contentLength / 1024));
-        File f = new File(cacheFile);
-        if (f.exists()) {
-            f.delete();
-        }
-        HttpURLConnection con;
-        try {
-            URL u = new URL(url);
-            con = (HttpURLConnection) u.openConnection();
-            con.setRequestMethod("GET");
-            con.setReadTimeout(5000);
-        } catch (IOException e) {
-            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+        String expectedSha256 = PardusDownloader.fetchPublishedSha256(url);
+        PardusDownloader downloader = new PardusDownloader(url, new File(cacheFile),
+                (received, total) -> setDialogProgress((int) (received / 1024)));
+        if (!downloader.download(PardusPreferences.isSegmentedDownload() ? DOWNLOAD_CONNECTIONS : 1)) {
             return false;
         }
-        try (BufferedInputStream bis = new BufferedInputStream(con.getInputStream(), 10240);
-             FileOutputStream fos = new FileOutputStream(f)) {
-            byte[] buffer = new byte[10240];
-            int bytesRead;
-            int totalRead = 0;
-            int numReads = 0;
-            while ((bytesRead = bis.read(buffer, 0, 10240)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                totalRead += bytesRead;
-                numReads++;
-                if (numReads % 10 == 0) {
-                    setDialogProgress(totalRead / 1024);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+        if (!checkSha256(downloader, expectedSha256)) {
+            // do not resume a corrupt download
+            new File(cacheFile).delete();
             return false;
         }
         return true;
 	}
 
+    /**
+     * Compares the hash of a completed download to its published digest.
+     *
+     * @param downloader
+     *            the downloader of the completed download
+     * @param expectedSha256
+     *            the published digest, null if none is published
+     * @return true if the hashes match or there is nothing to compare to,
+     *         false else
+     */
+    private boolean checkSha256(PardusDownloader downloader, String expectedSha256) {
+        if (expectedSha256 == null) {
+            return true;
+        }
+        setDialogMessage("Verifying ...");
+        try {
+            String sha256 = downloader.getSha256();
+            if (sha256.equalsIgnoreCase(expectedSha256)) {
+                return true;
+            }
+            Log.e(this.getClass().getSimpleName(), "Download corrupt, SHA-256 is " + sha256 + " instead of "
+                    + expectedSha256);
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+        }
+        return false;
+    }
+
     /**
      * Constructor.
      *
@@ -402,6 +1013,164 @@ public class PardusDownloadListener implements DownloadListener {
 		working = false;
 	}
 
+	/**
+	 * Sets up an image pack installed on demand, replacing any installed
+	 * image pack. Its files are fetched from the source by the local content
+	 * proxy as they are requested and kept for later use.
+	 * 
+	 * @param srcUrl
+	 *            the URL the image pack is hosted at, must be the source of an
+	 *            official image pack
+	 */
+	public void installOnDemand(final String srcUrl) {
+		if (!PardusImagePack.isKnownSource(srcUrl) || !startWorking()) {
+			return;
+		}
+		new Thread(() -> {
+			String targetDir = prepareStagingDir();
+			File oldDir = new File(storageDir + OLD_SUFFIX);
+			boolean installed = targetDir != null && writeOnDemandInfo(targetDir, srcUrl)
+					&& swapIn(targetDir, oldDir);
+			if (installed) {
+				PardusImagePack.updateIndex(storageDir);
+				PardusPreferences.setImagePath(storageDir);
+				LocalContentProxy.getInstance().invalidate();
+				deleteDirInBackground(oldDir);
+				// make ui thread switch to login page
+				setDialogMessage("");
+			} else {
+				if (targetDir != null) {
+					deleteDirInBackground(new File(targetDir));
+				}
+				setDialogMessage("error");
+			}
+			stopWorking();
+		}, "InstallOnDemand").start();
+	}
+
+    /**
+     * Writes the files marking a directory as image pack installed on demand.
+     *
+     * @param targetDir
+     *            the image pack directory
+     * @param srcUrl
+     *            the URL the image pack is hosted at
+     * @return true if successful, false else
+     */
+    private boolean writeOnDemandInfo(String targetDir, String srcUrl) {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(targetDir, "nfo_src")),
+                StandardCharsets.UTF_8)) {
+            out.write(srcUrl + "\n");
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+        try {
+            return new File(targetDir, LocalContentProxy.ON_DEMAND_MARKER).createNewFile();
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    /**
+     * Creates an empty staging layer within the image pack in
+     * updateStorageDir to install an update into.
+     *
+     * @return the path of the staging layer or null if it cannot be created
+     */
+    private String prepareUpdateLayer() {
+        try {
+            return ImagePackLayers.prepareStaging(new File(updateStorageDir)).getPath();
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return null;
+        }
+    }
+
+    /**
+     * Adds a completely installed staging layer on top of the image pack in
+     * updateStorageDir.
+     *
+     * @param stagingDir
+     *            the directory the update has been installed to
+     * @return true if successful, false if the image pack is unchanged
+     */
+    private boolean commitUpdateLayer(String stagingDir) {
+        try {
+            ImagePackLayers.commit(new File(updateStorageDir), new File(stagingDir));
+            return true;
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    /**
+     * Creates an empty staging directory next to storageDir to install a new
+     * image pack into, removing leftovers of an earlier failed installation.
+     *
+     * @return the path of the staging directory or null if it cannot be
+     *         created
+     */
+    private String prepareStagingDir() {
+        File stagingDir = new File(storageDir + STAGING_SUFFIX);
+        deleteDir(stagingDir);
+        if (!stagingDir.mkdirs()) {
+            Log.e(this.getClass().getSimpleName(), "Unable to create directory " + stagingDir);
+            return null;
+        }
+        return stagingDir.getPath();
+    }
+
+    /**
+     * Replaces the image pack in storageDir with a completely installed one
+     * by renaming directories. No pack is in place between both renames, so
+     * the local content proxy holds back requests for missing files until
+     * the swap is done.
+     *
+     * @param stagingDir
+     *            the directory the new image pack has been installed to
+     * @param oldDir
+     *            the directory to move the old image pack to
+     * @return true if successful, false if the old image pack is still in
+     *         place
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private boolean swapIn(String stagingDir, File oldDir) {
+        File liveDir = new File(storageDir);
+        // left over if the app died while deleting an old pack
+        deleteDir(oldDir);
+        LocalContentProxy proxy = LocalContentProxy.getInstance();
+        proxy.beginSwap();
+        try {
+            if (liveDir.exists() && !liveDir.renameTo(oldDir)) {
+                Log.e(this.getClass().getSimpleName(), "Unable to move " + liveDir + " aside");
+                return false;
+            }
+            if (!new File(stagingDir).renameTo(liveDir)) {
+                Log.e(this.getClass().getSimpleName(), "Unable to move " + stagingDir + " into place");
+                oldDir.renameTo(liveDir);
+                return false;
+            }
+            return true;
+        } finally {
+            proxy.endSwap();
+        }
+    }
+
+    /**
+     * Recursively deletes a directory on a separate thread.
+     *
+     * @param dir
+     *            directory to delete
+     */
+    private static void deleteDirInBackground(File dir) {
+        if (dir.exists()) {
+            new Thread(() -> deleteDir(dir), "DeleteImagePack").start();
+        }
+    }
+
 	/**
 	 * Recursively deletes a directory.
 	 *
@@ -409,7 +1178,7 @@ public class PardusDownloadListener implements DownloadListener {
      *            directory to delete
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-	private static void deleteDir(File dir) {
+	static void deleteDir(File dir) {
 		File[] files = dir.listFiles();
 		if (files == null) {
 			return;
@@ -0,0 +1,781 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file over unreliable connections.
+ *
+ * Received bytes are recorded in a journal next to the target file, so downloads resume with a Range request
+ * after connection errors as well as after app restarts. If-Range makes sure resumed bytes belong to the same
+ * version of the file. Failed requests are retried with exponential backoff.
+ *
+ * If the server accepts byte ranges, the file can be split into segments fetched concurrently and written to
+ * their offsets in the preallocated target file. Each segment resumes on its own.
+ *
+ * The SHA-256 hash of the file is computed from the bytes as they arrive in order. Only bytes received out of
+ * order, i.e. by later segments or before a restart, have to be read back from the file to complete it.
+ */
+class PardusDownloader {
+
+    /**
+     * Receives progress updates. Called from worker threads when downloading in segments.
+     */
+    interface ProgressListener {
+
+        /**
+         * @param received
+         *         the number of bytes received so far
+         * @param total
+         *         the size of the file, -1 if unknown
+         */
+        void onProgress(long received, long total);
+
+    }
+
+    private static final int CONNECT_TIMEOUT = 15000;
+
+    private static final int READ_TIMEOUT = 30000;
+
+    /**
+     * Number of consecutive failed attempts without receiving any bytes after which to give up.
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Minimum size of a segment, smaller files are downloaded over fewer connections.
+     */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final long JOURNAL_INTERVAL = 4 * 1024 * 1024;
+
+    private static final long PROGRESS_INTERVAL = 100 * 1024;
+
+    private static final int JOURNAL_MAGIC = 0x50444a32;
+
+    /**
+     * A byte range of the file and how much of it has been received.
+     */
+    private static final class Segment {
+
+        private final long start;
+
+        /**
+         * Exclusive, -1 if unknown.
+         */
+        private long end;
+
+        /**
+         * Only written by the thread fetching the segment.
+         */
+        private volatile long position;
+
+        private Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        private boolean isComplete() {
+            return end != -1 && position >= end;
+        }
+
+    }
+
+    private final String url;
+
+    private final File target;
+
+    private final File journalFile;
+
+    private final ProgressListener listener;
+
+    /**
+     * Only modified while no segment is being fetched.
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    private volatile String validator;
+
+    private volatile long length = -1;
+
+    private volatile boolean changed = false;
+
+    private final MessageDigest digest;
+
+    /**
+     * Number of bytes from the start of the file included in the digest.
+     */
+    private long hashed = 0;
+
+    private int connectTimeout = CONNECT_TIMEOUT;
+
+    private int readTimeout = READ_TIMEOUT;
+
+    /**
+     * @param url
+     *         URL to download
+     * @param target
+     *         the file to download to, its journal is stored next to it; may be null if only streaming
+     * @param listener
+     *         the listener to report progress to, may be null
+     */
+    PardusDownloader(String url, File target, ProgressListener listener) {
+        this.url = url;
+        this.target = target;
+        this.journalFile = (target == null) ? null : new File(target.getPath() + ".journal");
+        this.listener = listener;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param connectTimeout
+     *         timeout in ms for establishing a connection
+     * @param readTimeout
+     *         timeout in ms for receiving data on a connection
+     */
+    void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Downloads the file, resuming a previous download of the same URL if its journal is intact. Blocks until
+     * done. The journal is kept if the download fails so it can be resumed later.
+     *
+     * @param connections
+     *         the maximum number of concurrent connections, 1 to download in a single stream
+     * @return true if successful, false else
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    boolean download(int connections) {
+        if (!readJournal()) {
+            target.delete();
+            reset();
+        } else if (BuildConfig.DEBUG) {
+            Log.d(getClass().getSimpleName(), "Resuming download of " + url + " at " + getReceived() + "/"
+                    + length + " in " + segments.size() + " segments");
+        }
+        int failures = 0;
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            FileChannel channel = file.getChannel();
+            while (true) {
+                long before = getReceived();
+                try {
+                    fetch(file, connections);
+                    channel.force(false);
+                    journalFile.delete();
+                    return true;
+                } catch (IOException e) {
+                    if (changed) {
+                        // the file changed on the server, received segments are worthless
+                        reset();
+                        file.setLength(0);
+                    }
+                    checkpoint(channel);
+                    failures = (getReceived() > before) ? 1 : failures + 1;
+                    // timeouts are interrupted I/O too, but only a cancelled download must not be retried
+                    if (failures >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                        Log.e(getClass().getSimpleName(), "Giving up downloading " + url, e);
+                        return false;
+                    }
+                    Log.w(getClass().getSimpleName(), "Download interrupted at " + getReceived() + ", retrying", e);
+                    backoff(failures);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    /**
+     * Opens a stream of the file that transparently reconnects and continues where it left off when the
+     * connection drops. Nothing is persisted.
+     *
+     * @return a stream of the file's bytes
+     * @throws IOException
+     *         if the first connection cannot be established
+     */
+    InputStream openStream() throws IOException {
+        Segment segment = new Segment(0, -1, 0);
+        return new ResumingInputStream(segment, connect(segment, true).getInputStream());
+    }
+
+    /**
+     * Completes the hash of a downloaded file by reading the bytes that could not be hashed while downloading.
+     * Must only be called once the download or stream is complete.
+     *
+     * @return the hex encoded SHA-256 hash of the file
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    synchronized String getSha256() throws IOException {
+        if (target != null && hashed < target.length()) {
+            try (InputStream in = new FileInputStream(target)) {
+                if (in.skip(hashed) != hashed) {
+                    throw new IOException("Unable to skip " + hashed + " bytes");
+                }
+                byte[] buffer = new byte[65536];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                    hashed += bytesRead;
+                }
+            }
+        }
+        return PardusImagePackManifest.toHex(digest.digest());
+    }
+
+    /**
+     * Downloads the digest published next to a file as url.sha256, in the format of sha256sum.
+     *
+     * @param url
+     *         URL of the file
+     * @return the hex encoded SHA-256 hash of the file or null if none is published
+     */
+    static String fetchPublishedSha256(String url) {
+        try {
+            HttpURLConnection con = (HttpURLConnection) new URL(url + ".sha256").openConnection();
+            con.setUseCaches(false);
+            con.setRequestMethod("GET");
+            con.setConnectTimeout(CONNECT_TIMEOUT);
+            con.setReadTimeout(READ_TIMEOUT);
+            try (InputStream in = con.getInputStream()) {
+                byte[] buffer = new byte[128];
+                int length = 0;
+                int bytesRead;
+                while (length < buffer.length && (bytesRead = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += bytesRead;
+                }
+                String hash = new String(buffer, 0, length, "US-ASCII").trim().split("\\s+")[0];
+                return hash.matches("[0-9a-fA-F]{64}") ? hash : null;
+            } finally {
+                con.disconnect();
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) {
+                Log.d(PardusDownloader.class.getSimpleName(), "No digest published for " + url);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Requests the missing bytes and writes them to the file until complete. Splits a download that has not
+     * been split yet into segments if the server accepts byte ranges.
+     *
+     * @param file
+     *         the target file
+     * @param connections
+     *         the maximum number of concurrent connections
+     * @throws IOException
+     *         if fetching any segment fails
+     */
+    private void fetch(RandomAccessFile file, int connections) throws IOException {
+        FileChannel channel = file.getChannel();
+        HttpURLConnection first = null;
+        if (segments.size() == 1) {
+            Segment segment = segments.get(0);
+            if (segment.isComplete()) {
+                return;
+            }
+            first = connect(segment, true);
+            if (segment.position == 0) {
+                // started over, e.g. because the file changed
+                file.setLength(0);
+            }
+            boolean ranges = first.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+                    || "bytes".equalsIgnoreCase(first.getHeaderField("Accept-Ranges"));
+            if (connections > 1 && ranges && length - segment.position >= 2 * MIN_SEGMENT_SIZE) {
+                split(segment, connections);
+                file.setLength(length);
+                checkpoint(channel);
+            }
+        }
+        List<Segment> pending = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                pending.add(segment);
+            }
+        }
+        if (pending.size() == 1) {
+            Segment segment = pending.get(0);
+            transfer((first != null) ? first : connect(segment, true), segment, channel);
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(getClass().getSimpleName(), "Fetching " + pending.size() + " segments over "
+                    + Math.min(connections, pending.size()) + " connections");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(connections, pending.size()));
+        List<Future<?>> futures = new ArrayList<>();
+        for (Segment segment : pending) {
+            HttpURLConnection con = (segment == segments.get(0)) ? first : null;
+            futures.add(pool.submit(() -> {
+                transfer((con != null) ? con : connect(segment, false), segment, channel);
+                return null;
+            }));
+        }
+        pool.shutdown();
+        IOException error = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download cancelled");
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Splits the remainder of a segment into up to the given number of segments of similar size.
+     */
+    private void split(Segment segment, int count) {
+        long remaining = length - segment.position;
+        count = (int) Math.min(count, remaining / MIN_SEGMENT_SIZE);
+        long size = remaining / count;
+        long start = segment.position + size;
+        segment.end = start;
+        for (int i = 1; i < count; i++) {
+            long end = (i == count - 1) ? length : start + size;
+            segments.add(new Segment(start, end, start));
+            start = end;
+        }
+    }
+
+    /**
+     * Writes the body of a response to the segment's offset of the file until the segment is complete.
+     *
+     * @param con
+     *         the connection requesting the segment's missing bytes
+     * @param segment
+     *         the segment to complete
+     * @param channel
+     *         the channel of the target file
+     * @throws IOException
+     *         if the connection fails before the segment is complete
+     */
+    private void transfer(HttpURLConnection con, Segment segment, FileChannel channel) throws IOException {
+        try (InputStream in = con.getInputStream()) {
+            byte[] buffer = new byte[65536];
+            long journaled = segment.position;
+            long reported = segment.position;
+            while (!segment.isComplete()) {
+                int max = (segment.end == -1) ? buffer.length
+                        : (int) Math.min(buffer.length, segment.end - segment.position);
+                int bytesRead = in.read(buffer, 0, max);
+                if (bytesRead == -1) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytesRead);
+                while (data.hasRemaining()) {
+                    channel.write(data, segment.position + data.position());
+                }
+                hash(segment.position, buffer, 0, bytesRead);
+                segment.position += bytesRead;
+                if (segment.position - journaled >= JOURNAL_INTERVAL) {
+                    checkpoint(channel);
+                    journaled = segment.position;
+                }
+                if (listener != null && segment.position - reported >= PROGRESS_INTERVAL) {
+                    listener.onProgress(getReceived(), length);
+                    reported = segment.position;
+                }
+            }
+        } finally {
+            // the first segment may stop reading before the end of the response
+            con.disconnect();
+        }
+        if (segment.end == -1) {
+            // length unknown, complete at the end of the stream
+            segment.end = segment.position;
+            length = segment.position;
+        } else if (!segment.isComplete()) {
+            throw new IOException("Connection closed at " + segment.position + " of " + segment.end + " bytes");
+        }
+        if (listener != null) {
+            listener.onProgress(getReceived(), length);
+        }
+    }
+
+    /**
+     * Requests the missing bytes of a segment.
+     *
+     * @param segment
+     *         the segment to request
+     * @param wholeFile
+     *         true if the segment spans the whole file and may start over if the server sends the whole file,
+     *         e.g. because it changed since the download started
+     * @return the connection, its response is either partial content starting at the segment's position or the
+     * whole file
+     * @throws IOException
+     *         if the request fails
+     */
+    private HttpURLConnection connect(Segment segment, boolean wholeFile) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        con.setRequestMethod("GET");
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        con.setRequestProperty("Accept-Encoding", "identity");
+        con.setRequestProperty("Range", "bytes=" + segment.position + "-"
+                + ((segment.end == -1) ? "" : Long.toString(segment.end - 1)));
+        String validator = this.validator;
+        if (validator != null && (segment.position > 0 || !wholeFile)) {
+            con.setRequestProperty("If-Range", validator);
+        }
+        int status = con.getResponseCode();
+        if (status == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = con.getHeaderField("Content-Range");
+            if (parseContentRangeStart(contentRange) != segment.position) {
+                con.disconnect();
+                throw new IOException("Unexpected range " + contentRange);
+            }
+            length = parseContentRangeLength(contentRange);
+            if (validator == null) {
+                this.validator = getValidator(con);
+            }
+        } else if (status == HttpURLConnection.HTTP_OK) {
+            if (!wholeFile) {
+                con.disconnect();
+                changed = true;
+                throw new FileChangedException();
+            }
+            if (segment.position > 0 && BuildConfig.DEBUG) {
+                Log.d(getClass().getSimpleName(), "Server sent the whole file, starting over");
+            }
+            segment.position = 0;
+            resetDigest();
+            length = con.getContentLength();
+            this.validator = getValidator(con);
+        } else {
+            con.disconnect();
+            throw new IOException("Unexpected response " + status + " for " + url);
+        }
+        if (wholeFile) {
+            segment.end = length;
+        }
+        return con;
+    }
+
+    /**
+     * @return the value to send as If-Range to make sure resumed bytes belong to the same file, null if none
+     */
+    private static String getValidator(HttpURLConnection con) {
+        String etag = con.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        // weak entity tags cannot be used with If-Range
+        return con.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * @return the number of bytes received over all segments
+     */
+    private long getReceived() {
+        long received = 0;
+        for (Segment segment : segments) {
+            received += segment.position - segment.start;
+        }
+        return received;
+    }
+
+    /**
+     * Starts over with a single segment of unknown length.
+     */
+    private void reset() {
+        segments.clear();
+        segments.add(new Segment(0, -1, 0));
+        length = -1;
+        validator = null;
+        changed = false;
+        resetDigest();
+    }
+
+    /**
+     * Adds bytes to the digest if they follow the bytes already hashed.
+     *
+     * @param offset
+     *         the position of the bytes within the file
+     */
+    private synchronized void hash(long offset, byte[] bytes, int off, int length) {
+        if (offset == hashed) {
+            digest.update(bytes, off, length);
+            hashed += length;
+        }
+    }
+
+    private synchronized void resetDigest() {
+        digest.reset();
+        hashed = 0;
+    }
+
+    /**
+     * Waits before retrying.
+     *
+     * @param failures
+     *         the number of consecutive failures so far
+     * @throws InterruptedIOException
+     *         if interrupted while waiting
+     */
+    private static void backoff(int failures) throws InterruptedIOException {
+        long delay = Math.min(MAX_BACKOFF, 1000L << Math.min(failures - 1, 5));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Restores the state of a previous download of the same URL.
+     *
+     * @return true if there is a usable journal, false to start over
+     */
+    private boolean readJournal() {
+        if (!target.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journalFile))) {
+            if (in.readInt() != JOURNAL_MAGIC || !in.readUTF().equals(url)) {
+                return false;
+            }
+            String validator = in.readUTF();
+            long length = in.readLong();
+            int count = in.readInt();
+            if (validator.isEmpty() || count < 1) {
+                // without a validator resumed bytes might belong to a different file
+                return false;
+            }
+            List<Segment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Segment segment = new Segment(in.readLong(), in.readLong(), in.readLong());
+                if (segment.position < segment.start || segment.position > target.length()) {
+                    return false;
+                }
+                segments.add(segment);
+            }
+            this.segments.clear();
+            this.segments.addAll(segments);
+            this.validator = validator;
+            this.length = length;
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Ignoring unreadable download journal", e);
+            return false;
+        }
+    }
+
+    /**
+     * Forces received bytes to storage and records them in the journal.
+     *
+     * @param channel
+     *         the channel of the target file
+     * @throws IOException
+     *         if the bytes cannot be forced to storage
+     */
+    private synchronized void checkpoint(FileChannel channel) throws IOException {
+        // positions must not be journaled before the bytes up to them are stored
+        long[] positions = new long[segments.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = segments.get(i).position;
+        }
+        channel.force(false);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile))) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeUTF(url);
+            String validator = this.validator;
+            out.writeUTF((validator == null) ? "" : validator);
+            out.writeLong(length);
+            out.writeInt(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                Segment segment = segments.get(i);
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(positions[i]);
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error writing download journal", e);
+        }
+    }
+
+    /**
+     * @param contentRange
+     *         the value of a Content-Range header (bytes start-end/length)
+     * @return the first byte position of the range
+     * @throws IOException
+     *         if the header is malformed
+     */
+    private static long parseContentRangeStart(String contentRange) throws IOException {
+        try {
+            int start = contentRange.indexOf(' ') + 1;
+            return Long.parseLong(contentRange.substring(start, contentRange.indexOf('-', start)).trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid Content-Range " + contentRange);
+        }
+    }
+
+    /**
+     * @param contentRange
+     *         the value of a Content-Range header (bytes start-end/length)
+     * @return the complete length, -1 if unknown
+     * @throws IOException
+     *         if the header is malformed
+     */
+    private static long parseContentRangeLength(String contentRange) throws IOException {
+        try {
+            String length = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+            return length.equals("*") ? -1 : Long.parseLong(length);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid Content-Range " + contentRange);
+        }
+    }
+
+    /**
+     * Thrown when the file on the server no longer matches the bytes received so far, which makes reconnecting
+     * pointless.
+     */
+    private static class FileChangedException extends IOException {
+
+        private FileChangedException() {
+            super("File changed while downloading");
+        }
+
+    }
+
+    /**
+     * Stream of the downloaded file that reconnects with a Range request when the connection fails.
+     */
+    private class ResumingInputStream extends InputStream {
+
+        private final Segment segment;
+
+        private InputStream in;
+
+        private int failures = 0;
+
+        private ResumingInputStream(Segment segment, InputStream in) {
+            this.segment = segment;
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                try {
+                    if (in == null) {
+                        long resumeAt = segment.position;
+                        in = connect(segment, true).getInputStream();
+                        if (segment.position != resumeAt) {
+                            // the bytes already consumed cannot be taken back
+                            throw new FileChangedException();
+                        }
+                    }
+                    int n = in.read(b, off, len);
+                    if (n > 0) {
+                        hash(segment.position, b, off, n);
+                        segment.position += n;
+                        failures = 0;
+                    } else if (n == -1 && length != -1 && segment.position < length) {
+                        throw new IOException("Connection closed at " + segment.position + " of " + length
+                                + " bytes");
+                    }
+                    return n;
+                } catch (FileChangedException e) {
+                    throw e;
+                } catch (IOException e) {
+                    closeQuietly();
+                    if (++failures >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    Log.w(PardusDownloader.class.getSimpleName(), "Stream interrupted at " + segment.position
+                            + ", reconnecting", e);
+                    backoff(failures);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+                in = null;
+            }
+        }
+
+    }
+
+}
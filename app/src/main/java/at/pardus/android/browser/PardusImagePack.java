@@ -22,15 +22,25 @@ import android.os.Bundle;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import at.pardus.android.content.ImagePackIndex;
+import at.pardus.android.content.ImagePackLayers;
+import at.pardus.android.content.LocalContentProxy;
+import at.pardus.android.content.WebpTranscoder;
 import at.pardus.android.webview.gm.util.UnicodeReader;
 
 /**
@@ -38,6 +48,20 @@ import at.pardus.android.webview.gm.util.UnicodeReader;
  */
 public class PardusImagePack {
 
+	/**
+	 * Location of the image pack directory within external storage.
+	 */
+	static final String EXTERNAL_SUB_DIR = "/pardus/img";
+
+	/**
+	 * Location of the image pack directory within internal storage.
+	 */
+	static final String INTERNAL_SUB_DIR = "/img";
+
+	private static final AtomicBoolean verifying = new AtomicBoolean(false);
+
+	private static final AtomicBoolean indexing = new AtomicBoolean(false);
+
 	private String path;
 
 	/**
@@ -141,12 +165,93 @@ public class PardusImagePack {
 		}.start();
 	}
 
+	/**
+	 * Starts a separate thread to re-hash the installed files, compare them
+	 * to the image pack's manifest and download corrupt or missing files
+	 * again from srcUrl (if set). Displays the result.
+	 * 
+	 * @param activity
+	 *            the activity displaying messages
+	 * @return true if started, false if no image pack is installed or a
+	 *         verification is already running
+	 */
+	public boolean verify(final Activity activity) {
+		if (path == null || !verifying.compareAndSet(false, true)) {
+			return false;
+		}
+		new Thread() {
+			public void run() {
+				try {
+					String message = verifyFiles();
+					activity.runOnUiThread(() -> PardusNotification.showLong(message));
+				} finally {
+					verifying.set(false);
+				}
+			}
+		}.start();
+		return true;
+	}
+
+    /**
+     * Verifies and repairs the installed files.
+     *
+     * @return a message describing the result
+     */
+    private String verifyFiles() {
+        File root = new File(path);
+        PardusImagePackManifest manifest = PardusImagePackManifest.read(
+                ImagePackLayers.locate(root, PardusImagePackManifest.FILE_NAME));
+        if (manifest == null) {
+            return "Image pack has no index to verify against, reinstall it to create one";
+        }
+        List<String> corrupt;
+        try {
+            corrupt = manifest.verify(root, null);
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return "Image pack verification failed";
+        }
+        if (corrupt.isEmpty()) {
+            return "Image pack verified, all files intact";
+        }
+        Log.w(this.getClass().getSimpleName(), corrupt.size() + " corrupt image pack files: " + corrupt);
+        String srcUrl = getSrcUrl();
+        if (srcUrl == null) {
+            return corrupt.size() + " corrupt image pack files, reinstall the image pack to repair them";
+        }
+        // files are repaired within the layer they are served from
+        Map<File, List<String>> repaired = new HashMap<>();
+        int repairedCount = 0;
+        for (String file : corrupt) {
+            File layer = ImagePackLayers.locate(root, file);
+            if (manifest.fetchFile(srcUrl, layer, file)) {
+                repaired.computeIfAbsent(layer, key -> new ArrayList<>()).add(file);
+                repairedCount++;
+            }
+        }
+        try {
+            // variants of the corrupt files are worthless
+            for (Map.Entry<File, List<String>> entry : repaired.entrySet()) {
+                WebpTranscoder.dropVariants(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+        }
+        updateIndex(path);
+        LocalContentProxy.getInstance().invalidate();
+        return "Repaired " + repairedCount + " of " + corrupt.size() + " corrupt image pack files";
+    }
+
 	/**
 	 * @return the URL this image pack is originally hosted at or null if that
 	 *         information is not available
 	 */
-    private String getSrcUrl() {
-        try (Scanner in = new Scanner(new FileReader(path + "/nfo_src")).useDelimiter("[\\r\\n]+")) {
+    String getSrcUrl() {
+        ImagePackIndex index = (path == null) ? null : ImagePackIndex.get(new File(path));
+        if (index != null) {
+            return index.getSrcUrl();
+        }
+        try (Scanner in = openInfoFile("nfo_src").useDelimiter("[\\r\\n]+")) {
             return in.next();
         } catch (Exception e) {
             return null;
@@ -158,13 +263,92 @@ public class PardusImagePack {
 	 *         (yyyymmdd[0-9][0-9]) or -1 if that information is not available
 	 */
     private long getLastUpdate() {
-        try (Scanner in = new Scanner(new FileReader(path + "/nfo_upd")).useDelimiter("[\\r\\n]+")) {
+        ImagePackIndex index = (path == null) ? null : ImagePackIndex.get(new File(path));
+        if (index != null) {
+            return index.getVersion();
+        }
+        try (Scanner in = openInfoFile("nfo_upd").useDelimiter("[\\r\\n]+")) {
             return in.nextLong();
         } catch (Exception e) {
             return -1;
         }
 	}
 
+    /**
+     * Removes the most recently installed update, reverting the image pack to
+     * its previous version.
+     *
+     * @return true if an update has been removed, false if there is none or
+     *         it cannot be removed
+     */
+    public boolean rollbackUpdate() {
+        if (path == null) {
+            return false;
+        }
+        try {
+            if (!ImagePackLayers.dropTop(new File(path))) {
+                return false;
+            }
+        } catch (IOException e) {
+            Log.e(this.getClass().getSimpleName(), Log.getStackTraceString(e));
+            return false;
+        }
+        updateIndex(path);
+        LocalContentProxy.getInstance().invalidate();
+        return true;
+    }
+
+    /**
+     * Lists the files of an image pack in its index after they have changed,
+     * along with their hashes from the manifest. Drops the index if that
+     * fails, so files are looked up on storage.
+     *
+     * @param imagePath
+     *            the path to the Pardus image pack directory
+     */
+    static void updateIndex(String imagePath) {
+        File root = new File(imagePath);
+        PardusImagePackManifest manifest = PardusImagePackManifest.read(
+                ImagePackLayers.locate(root, PardusImagePackManifest.FILE_NAME));
+        try {
+            ImagePackIndex.rebuild(root, (manifest == null) ? null : path -> {
+                PardusImagePackManifest.Entry entry = manifest.get(path);
+                return (entry == null) ? null : entry.hash;
+            });
+        } catch (IOException e) {
+            Log.e(PardusImagePack.class.getSimpleName(), Log.getStackTraceString(e));
+            ImagePackIndex.discard(root);
+        }
+    }
+
+    /**
+     * Opens an image pack info file from the topmost update layer containing
+     * it. Info files not found in any layer are read from the image pack's
+     * archive if it has been installed without extracting it and the file has
+     * not been extracted by an update.
+     *
+     * @param name
+     *            the name of the info file
+     * @return a scanner reading the file
+     * @throws IOException
+     *             if the file does not exist or cannot be read
+     */
+    private Scanner openInfoFile(String name) throws IOException {
+        File file = ImagePackLayers.resolve(new File(path), name);
+        if (file.exists()) {
+            return new Scanner(new FileReader(file));
+        }
+        try (ZipFile zipFile = new ZipFile(new File(path, LocalContentProxy.ARCHIVE_NAME))) {
+            ZipEntry zipEntry = zipFile.getEntry(name);
+            if (zipEntry == null) {
+                throw new FileNotFoundException(name + " not found in archive");
+            }
+            try (Scanner in = new Scanner(zipFile.getInputStream(zipEntry), "UTF-8").useDelimiter("\\A")) {
+                return new Scanner(in.hasNext() ? in.next() : "");
+            }
+        }
+    }
+
 	/**
 	 * @return the absolute path to the Pardus image pack directory or null if
 	 *         it could not be determined
@@ -174,10 +358,15 @@ public class PardusImagePack {
 	}
 
 	/**
-	 * Checks if an image pack is installed.
+	 * Checks if an image pack is installed, which is the case for any image
+	 * pack with an index. Image packs without one are indexed in the
+	 * background.
 	 * 
 	 * Creates a .nomedia file to hide from Android's gallery app.
 	 * 
+	 * Recognizes extracted image packs, image packs kept as archive and image
+	 * packs installed on demand.
+	 * 
 	 * @param imagePath
 	 *            the directory to look for image pack files in
 	 * @return true if found, false else
@@ -186,6 +375,9 @@ public class PardusImagePack {
 		if (imagePath == null || imagePath.equals("")) {
 			return false;
 		}
+		if (ImagePackIndex.get(new File(imagePath)) != null) {
+			return true;
+		}
 		boolean installed = false;
 		File galleryHideFile = new File(imagePath + "/.nomedia");
 		if (galleryHideFile.exists() && galleryHideFile.canRead()) {
@@ -194,8 +386,19 @@ public class PardusImagePack {
 		} else {
 			// .nomedia file does not exist
 			File imagePathCheckFile = new File(imagePath + "/vip.png");
-			if (imagePathCheckFile.exists() && imagePathCheckFile.canRead()) {
+			File archiveFile = new File(imagePath, LocalContentProxy.ARCHIVE_NAME);
+			File onDemandFile = new File(imagePath, LocalContentProxy.ON_DEMAND_MARKER);
+			if ((imagePathCheckFile.exists() && imagePathCheckFile.canRead())
+					|| (archiveFile.isFile() && archiveFile.canRead())
+					|| onDemandFile.isFile()) {
 				installed = true;
+				// image pack installed before indexes were introduced
+				if (indexing.compareAndSet(false, true)) {
+					new Thread(() -> {
+						updateIndex(imagePath);
+						indexing.set(false);
+					}, "IndexImagePack").start();
+				}
 				// image pack exists -> create .nomedia file
                 boolean nomediaFileCreated = false;
 				try {
@@ -215,7 +418,18 @@ public class PardusImagePack {
 	}
 
     /**
-     * Determines the path to store the Pardus image pack files in.
+     * @param srcUrl
+     *            a URL image pack files may be fetched from
+     * @return true if it is the source of an official image pack
+     */
+    static boolean isKnownSource(String srcUrl) {
+        return IMAGEPACKUPDATES.containsKey(srcUrl);
+    }
+
+    /**
+     * Determines the path to store the Pardus image pack files in. An image
+     * pack that has been moved to another storage location because it is
+     * faster stays there.
      *
      * @param externalDir may be either the external root directory of the device or the app
      * @param internalDir the internal directory of the app
@@ -223,15 +437,21 @@ public class PardusImagePack {
      * it could not be determined
      */
     private static String determinePath(File externalDir, File internalDir) {
+        String migratedPath = PardusPreferences.getImagePath();
+        if ((externalDir != null && migratedPath.equals(externalDir.getAbsolutePath() + EXTERNAL_SUB_DIR)
+                || internalDir != null && migratedPath.equals(internalDir.getAbsolutePath() + INTERNAL_SUB_DIR))
+                && isInstalled(migratedPath)) {
+            return migratedPath;
+        }
         // determine available storage directories (prefer external device)
-        String path = getPardusDir(externalDir, "/pardus/img");
+        String path = getPardusDir(externalDir, EXTERNAL_SUB_DIR);
         if (path == null) {
             // no external storage available
             if (BuildConfig.DEBUG) {
                 Log.d(PardusImagePack.class.getSimpleName(),
                         "Using internal storage space for the image pack");
             }
-            path = getPardusDir(internalDir, "/img");
+            path = getPardusDir(internalDir, INTERNAL_SUB_DIR);
         }
         return path;
     }
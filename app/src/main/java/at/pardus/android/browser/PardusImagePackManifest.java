@@ -0,0 +1,542 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import at.pardus.android.content.ImagePackLayers;
+import at.pardus.android.content.LocalContentProxy;
+
+/**
+ * Lists the files of an image pack with their sizes and SHA-256 hashes.
+ *
+ * The manifest of an installed image pack is stored in its directory. Comparing it to the manifest published
+ * next to the image pack's source files tells which files an update has to fetch. Comparing it to the installed
+ * files tells which of them are corrupt. Both manifests use the same format: one line per file holding its hash,
+ * size and path relative to the image pack directory, separated by spaces.
+ */
+class PardusImagePackManifest {
+
+    /**
+     * File within the image pack directory holding the manifest of the installed files.
+     */
+    static final String FILE_NAME = ".manifest";
+
+    /**
+     * Name of the manifest published at the image pack's source URL.
+     */
+    static final String REMOTE_NAME = "nfo_manifest";
+
+    /**
+     * Size and hash of a file.
+     */
+    static final class Entry {
+
+        final long size;
+
+        final String hash;
+
+        Entry(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+
+        /**
+         * @return true if both describe the same content
+         */
+        boolean matches(Entry other) {
+            return other != null && size == other.size && hash.equalsIgnoreCase(other.hash);
+        }
+
+    }
+
+    /**
+     * Receives progress updates. Called from worker threads.
+     */
+    interface ProgressListener {
+
+        /**
+         * @param processed
+         *         the number of files hashed so far
+         * @param total
+         *         the number of files to hash
+         */
+        void onProgress(int processed, int total);
+
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Creates an empty manifest.
+     */
+    PardusImagePackManifest() {
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @return the manifest of the installed files or null if there is none
+     */
+    static PardusImagePackManifest read(File root) {
+        try (Reader in = new InputStreamReader(new FileInputStream(new File(root, FILE_NAME)),
+                StandardCharsets.UTF_8)) {
+            return parse(in);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(PardusImagePackManifest.class.getSimpleName(), "Error reading image pack manifest", e);
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the manifest published at an image pack's source URL.
+     *
+     * @param srcUrl
+     *         the URL the image pack is hosted at
+     * @return the manifest of the source's files
+     * @throws IOException
+     *         if the source has no manifest or it cannot be read
+     */
+    static PardusImagePackManifest fetch(String srcUrl) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(srcUrl + "/" + REMOTE_NAME).openConnection();
+        con.setUseCaches(false);
+        con.setRequestMethod("GET");
+        con.setConnectTimeout(15000);
+        con.setReadTimeout(30000);
+        try (Reader in = new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8)) {
+            return parse(in);
+        } finally {
+            con.disconnect();
+        }
+    }
+
+    /**
+     * @throws IOException
+     *         if a line is malformed or the manifest cannot be read
+     */
+    private static PardusImagePackManifest parse(Reader reader) throws IOException {
+        PardusImagePackManifest manifest = new PardusImagePackManifest();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(" ", 3);
+            if (fields.length < 3 || fields[2].contains("..")) {
+                throw new IOException("Invalid manifest line " + line);
+            }
+            try {
+                manifest.entries.put(fields[2], new Entry(Long.parseLong(fields[1]), fields[0]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest line " + line);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest in the image pack directory, replacing any previous one.
+     *
+     * @param root
+     *         the image pack directory
+     * @throws IOException
+     *         if the manifest cannot be written
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    void write(File root) throws IOException {
+        File temp = new File(root, FILE_NAME + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.write(entry.getValue().hash + " " + entry.getValue().size + " " + entry.getKey() + "\n");
+            }
+        }
+        if (!temp.renameTo(new File(root, FILE_NAME))) {
+            temp.delete();
+            throw new IOException("Unable to replace " + FILE_NAME);
+        }
+    }
+
+    /**
+     * @param path
+     *         the path of a file relative to the image pack directory
+     * @return its size and hash or null if not listed
+     */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Lists or relists a file.
+     */
+    void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * @param remote
+     *         the manifest of a newer version of the image pack
+     * @return the paths of the files that are missing or differ from the ones listed in the newer manifest
+     */
+    List<String> diff(PardusImagePackManifest remote) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : remote.entries.entrySet()) {
+            if (!entry.getValue().matches(entries.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Hashes files in parallel on all cores and lists them, replacing previous entries. Blocks until done.
+     *
+     * @param root
+     *         the image pack directory
+     * @param paths
+     *         the paths of the files relative to the image pack directory
+     * @param listener
+     *         the listener to report progress to, may be null
+     * @throws IOException
+     *         if a file cannot be read
+     */
+    void hashFiles(File root, Collection<String> paths, ProgressListener listener) throws IOException {
+        forEachParallel(paths, path -> {
+            File file = new File(root, path);
+            try (InputStream in = new FileInputStream(file)) {
+                entries.put(path, new Entry(file.length(), hash(in)));
+            }
+        }, listener);
+    }
+
+    /**
+     * Replaces listed files with the same content by hard links to one of them, so the content is stored once.
+     * Files must never be written in place afterwards, only replaced. Stops if the file system does not support hard
+     * links, e.g. emulated external storage.
+     *
+     * @param root
+     *         the directory the files are stored in
+     * @param paths
+     *         the paths of the files relative to root
+     * @return the number of bytes freed
+     */
+    long linkDuplicates(File root, Collection<String> paths) {
+        Map<String, String> originals = new HashMap<>();
+        long freed = 0;
+        for (String path : paths) {
+            Entry entry = entries.get(path);
+            if (entry == null || entry.size == 0) {
+                continue;
+            }
+            String original = originals.putIfAbsent(entry.hash.toLowerCase(Locale.US) + " " + entry.size, path);
+            if (original == null) {
+                continue;
+            }
+            Path link = new File(root, path + ".link").toPath();
+            try {
+                Files.deleteIfExists(link);
+                Files.createLink(link, new File(root, original).toPath());
+                Files.move(link, new File(root, path).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                freed += entry.size;
+            } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                Log.w(getClass().getSimpleName(), "Unable to link " + path + " to " + original
+                        + ", not deduplicating", e);
+                try {
+                    Files.deleteIfExists(link);
+                } catch (IOException ignored) {
+                }
+                break;
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Re-hashes the listed files in parallel on all cores and compares them to their entries. Blocks until done.
+     * Files are checked in the topmost update layer containing them. Files missing from an image pack kept as
+     * archive are served from the archive and not checked.
+     *
+     * @param root
+     *         the image pack directory
+     * @param listener
+     *         the listener to report progress to, may be null
+     * @return the paths of missing or corrupt files
+     * @throws IOException
+     *         if cancelled
+     */
+    List<String> verify(File root, ProgressListener listener) throws IOException {
+        boolean archived = new File(root, LocalContentProxy.ARCHIVE_NAME).isFile();
+        List<File> layers = ImagePackLayers.list(root);
+        Set<String> corrupt = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        forEachParallel(entries.keySet(), path -> {
+            File file = new File(ImagePackLayers.locate(root, layers, path), path);
+            if (!file.isFile()) {
+                if (!archived) {
+                    corrupt.add(path);
+                }
+                return;
+            }
+            try (InputStream in = new FileInputStream(file)) {
+                if (!entries.get(path).matches(new Entry(file.length(), hash(in)))) {
+                    corrupt.add(path);
+                }
+            } catch (IOException e) {
+                corrupt.add(path);
+            }
+        }, listener);
+        return new ArrayList<>(corrupt);
+    }
+
+    /**
+     * Downloads a listed file from the image pack's source with a single request, verifies it and moves it into
+     * place. Files are small, so failed requests are neither resumed nor retried.
+     *
+     * @param srcUrl
+     *         the URL the image pack is hosted at
+     * @param root
+     *         the image pack directory
+     * @param path
+     *         the path of the file relative to the image pack directory
+     * @return true if successful, false else
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    boolean fetchFile(String srcUrl, File root, String path) {
+        File target = new File(root, path);
+        File part = new File(root, path + ".part");
+        File dir = part.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        HttpURLConnection con = null;
+        try {
+            con = (HttpURLConnection) new URL(srcUrl + "/" + encodePath(path)).openConnection();
+            con.setUseCaches(false);
+            con.setRequestMethod("GET");
+            con.setConnectTimeout(15000);
+            con.setReadTimeout(30000);
+            int status = con.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                Log.w(getClass().getSimpleName(), "Unable to fetch " + path + ", response code " + status);
+                return false;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = 0;
+            try (InputStream in = con.getInputStream(); FileOutputStream out = new FileOutputStream(part)) {
+                byte[] buffer = new byte[65536];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                    out.write(buffer, 0, bytesRead);
+                    size += bytesRead;
+                }
+            }
+            Entry expected = entries.get(path);
+            if (expected != null && !expected.matches(new Entry(size, toHex(digest.digest())))) {
+                Log.w(getClass().getSimpleName(), "Downloaded " + path + " does not match the manifest");
+                part.delete();
+                return false;
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(getClass().getSimpleName(), "Unable to fetch " + path, e);
+            part.delete();
+            return false;
+        } finally {
+            if (con != null) {
+                con.disconnect();
+            }
+        }
+        if (!part.renameTo(target)) {
+            part.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param path
+     *         the path of a file relative to the image pack directory
+     * @return the path with each segment percent-encoded for use in a URL
+     */
+    static String encodePath(String path) {
+        StringBuilder sb = new StringBuilder(path.length() + 16);
+        String[] segments = path.split("/", -1);
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0) {
+                    sb.append('/');
+                }
+                // form encoding turns spaces into plus signs, which paths keep literally
+                sb.append(URLEncoder.encode(segments[i], "UTF-8").replace("+", "%20"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Task run for each file.
+     */
+    private interface FileTask {
+
+        void run(String path) throws IOException;
+
+    }
+
+    /**
+     * Runs a task for each file on a pool of one thread per core and blocks until done. Stops at the first
+     * error.
+     *
+     * @throws IOException
+     *         the first error of any task or if cancelled
+     */
+    private static void forEachParallel(Collection<String> paths, FileTask task, ProgressListener listener)
+            throws IOException {
+        AtomicReference<IOException> error = new AtomicReference<>();
+        AtomicInteger processed = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        int total = paths.size();
+        for (String path : paths) {
+            workers.execute(() -> {
+                if (error.get() != null) {
+                    return;
+                }
+                try {
+                    task.run(path);
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                }
+                int n = processed.incrementAndGet();
+                if (listener != null) {
+                    listener.onProgress(n, total);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Cancelled");
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * Hashes the entries of an image pack kept as archive and lists them.
+     *
+     * @param archive
+     *         the image pack's archive
+     * @throws IOException
+     *         if the archive cannot be read
+     */
+    void hashArchive(File archive) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream in = zipFile.getInputStream(zipEntry)) {
+                    entries.put(zipEntry.getName(), new Entry(zipEntry.getSize(), hash(in)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param in
+     *         the stream to hash, read to its end
+     * @return the hex encoded SHA-256 hash of the stream's bytes
+     * @throws IOException
+     *         if the stream cannot be read
+     */
+    static String hash(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[65536];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the bytes as lower case hex string
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
@@ -17,8 +17,11 @@
 
 package at.pardus.android.browser;
 
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Handler;
 import android.util.Log;
+import android.webkit.CookieManager;
 import android.widget.TextView;
 
 import java.io.BufferedInputStream;
@@ -28,53 +31,90 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to periodically send HTTP GET requests to the currently logged in
- * Pardus universe server to check for new messages and logs.
+ * Pardus universe server to check for new messages and logs. Optionally
+ * checks all universes played at once.
+ * 
+ * Checks follow page activity: they are frequent while the user browses the
+ * game and become less frequent the longer the user is idle. Checking pauses
+ * while the device is offline and catches up once it is back online.
  */
 public class PardusMessageChecker {
 
 	private static final int TIMEOUT_MILLIS = 5000;
 
-	private static final Pattern patternStatus = Pattern
-			.compile("px;'> (.*)</font></td></tr></table>");
+	private static final String[] UNIVERSES = { "artemis", "orion", "pegasus" };
 
-	private static final Pattern patternPm = Pattern
-			.compile("<span id=\"new_msg\">(\\d+)</span>");
-
-	private static final Pattern patternAm = Pattern
-			.compile("<span id=\"new_amsg\">(\\d+)</span>");
-
-	private static final Pattern patternTrade = Pattern
-			.compile("<span id=\"new_tl\">(\\d+)</span>");
-
-	private static final Pattern patternMission = Pattern
-			.compile("<span id=\"new_ml\">(\\d+)</span>");
-
-	private static final Pattern patternPay = Pattern
-			.compile("<span id=\"new_pl\">(\\d+)</span>");
+	/**
+	 * Delay of a check requested right away, which lets requests arriving in
+	 * a burst share one check.
+	 */
+	private static final long IMMEDIATE_DELAY_MILLIS = 1500;
 
-	private static final Pattern patternCombat = Pattern
-			.compile("<span id=\"new_cl\">(\\d+)</span>");
+	/**
+	 * Factor by which the base period is shortened after page activity.
+	 */
+	private static final int ACTIVE_DIVISOR = 2;
 
-	private static final Pattern patternMo = Pattern
-			.compile("<span id=\"new_mo\">(\\d+)</span>");
+	/**
+	 * Factor by which the period may grow beyond the base period while idle.
+	 */
+	private static final int MAX_IDLE_FACTOR = 4;
 
 	private final TextView notifyView;
 
 	private final int delayMillis;
 
-	private String universe;
-	private URL url;
-	private String cookies;
+	private volatile String universe;
+	private volatile URL url;
+	private volatile String cookies;
+	private volatile boolean countsObserved = false;
+
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "PardusMessageChecker");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private final ExecutorService universeCheckers = Executors
+			.newFixedThreadPool(UNIVERSES.length, runnable -> {
+				Thread thread = new Thread(runnable, "PardusMessageChecker-universe");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private final Map<String, PardusMessageCounts> countsTable = new ConcurrentHashMap<>();
+	private ScheduledFuture<?> nextCheck;
+	private long checkGeneration = 0;
+	private long nextDelayMillis;
+	private boolean paused = true;
+	private boolean offline = false;
+
+	private final ConnectivityManager connectivityManager;
+	private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+
+		@Override
+		public void onAvailable(Network network) {
+			onConnectivityChanged(true);
+		}
+
+		@Override
+		public void onLost(Network network) {
+			onConnectivityChanged(false);
+		}
 
-	private final Timer timer = new Timer();
-	private TimerTask task;
+	};
 
 	private final Handler handler;
 
@@ -86,22 +126,30 @@ public class PardusMessageChecker {
 	 * @param notifyView
 	 *            the view to use to notify the user
 	 * @param delayMillis
-	 *            the period between checks in milli-seconds
+	 *            the base period between checks in milli-seconds, halved
+	 *            after page activity and growing up to four times as long
+	 *            while the user is idle
 	 */
 	public PardusMessageChecker(Handler handler, TextView notifyView,
 			int delayMillis) {
 		this.handler = handler;
 		this.notifyView = notifyView;
 		this.delayMillis = delayMillis;
+		this.nextDelayMillis = delayMillis / ACTIVE_DIVISOR;
+		connectivityManager = notifyView.getContext().getSystemService(ConnectivityManager.class);
 	}
 
 	/**
 	 * Tries to get the msgFrame via an HTTP GET request, parses it for new
-	 * messages/logs and displays the result.
+	 * messages/logs and displays the result. Checks the other universes
+	 * played at the same time if enabled.
 	 * 
 	 * Does not need to and should not be run on the UI thread.
 	 */
     private void check() {
+		String universe = this.universe;
+		URL url = this.url;
+		String cookies = this.cookies;
 		if (universe == null) {
 			return;
 		}
@@ -109,6 +157,84 @@ public class PardusMessageChecker {
 			Log.v(this.getClass().getSimpleName(),
 					"Checking for new messages/logs");
 		}
+		if (!PardusPreferences.isCheckAllUniverses()) {
+			PardusMessageCounts counts = fetch(url, cookies);
+			if (counts != null) {
+				countsTable.put(universe, counts);
+				handler.post(new NotifyRunnable(counts.format()));
+			}
+			return;
+		}
+		String playedUniverses = PardusPreferences.getPlayedUniverses();
+		Map<String, Future<PardusMessageCounts>> results = new LinkedHashMap<>();
+		results.put(universe, universeCheckers.submit(() -> fetch(url, cookies)));
+		for (String otherUniverse : UNIVERSES) {
+			if (otherUniverse.equals(universe) || !playedUniverses.contains(otherUniverse)) {
+				continue;
+			}
+			String otherUrl = PardusConstants.getUniverseUrl(otherUniverse, PardusConstants.msgFrame);
+			String otherCookies = CookieManager.getInstance().getCookie(otherUrl);
+			if (otherCookies == null) {
+				// not logged in to the universe
+				countsTable.remove(otherUniverse);
+				continue;
+			}
+			results.put(otherUniverse, universeCheckers.submit(() -> fetch(new URL(otherUrl), otherCookies)));
+		}
+		for (Map.Entry<String, Future<PardusMessageCounts>> result : results.entrySet()) {
+			try {
+				PardusMessageCounts counts = result.getValue().get();
+				if (counts != null) {
+					countsTable.put(result.getKey(), counts);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				Log.w(this.getClass().getSimpleName(), "Could not check for messages in " + result.getKey(),
+						e.getCause());
+			}
+		}
+		handler.post(new NotifyRunnable(formatTable(universe)));
+	}
+
+	/**
+	 * Renders the counters of all universes checked: the status message and
+	 * counters of the current universe followed by a line per other universe
+	 * with new messages/logs.
+	 * 
+	 * @param universe
+	 *            the current universe
+	 * @return the text to display
+	 */
+	private String formatTable(String universe) {
+		PardusMessageCounts current = countsTable.get(universe);
+		StringBuilder text = new StringBuilder((current == null) ? "" : current.format());
+		for (String otherUniverse : UNIVERSES) {
+			PardusMessageCounts counts = countsTable.get(otherUniverse);
+			if (otherUniverse.equals(universe) || counts == null) {
+				continue;
+			}
+			String newCounters = counts.formatNew();
+			if (!newCounters.isEmpty()) {
+				text.append('\n').append(Character.toUpperCase(otherUniverse.charAt(0)))
+						.append(otherUniverse.substring(1)).append(": ").append(newCounters);
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Gets a msgFrame via an HTTP GET request and parses it for new
+	 * messages/logs.
+	 * 
+	 * @param url
+	 *            the msgFrame URL of a universe
+	 * @param cookies
+	 *            the cookies to authenticate
+	 * @return the counters found or null if the msgFrame could not be read
+	 */
+	static PardusMessageCounts fetch(URL url, String cookies) {
         HttpURLConnection urlConnection;
         try {
             urlConnection = (HttpURLConnection) url.openConnection();
@@ -117,117 +243,240 @@ public class PardusMessageChecker {
             urlConnection.setReadTimeout(TIMEOUT_MILLIS);
             urlConnection.setConnectTimeout(TIMEOUT_MILLIS);
             if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                Log.w(this.getClass().getSimpleName(),
+                Log.w(PardusMessageChecker.class.getSimpleName(),
                         "Could not check for messages, response code " + urlConnection.getResponseCode());
-                return;
+                return null;
             }
         } catch (IOException e) {
-            Log.w(this.getClass().getSimpleName(), "Could not check for messages", e);
-            return;
+            Log.w(PardusMessageChecker.class.getSimpleName(), "Could not check for messages", e);
+            return null;
         }
         try (InputStream in = new BufferedInputStream(urlConnection.getInputStream()); InputStreamReader
                 reader = new InputStreamReader(in)) {
-            StringBuilder sb = new StringBuilder();
-            char[] buffer = new char[2048];
-            int i;
-            while ((i = reader.read(buffer, 0, buffer.length)) >= 0) {
-                if (i > 0) {
-                    sb.append(buffer, 0, i);
-                }
+            // parsing stops once all counters have been found
+            PardusMessageCounts counts = PardusMessageCounts.parse(reader);
+            // the rest is read without decoding so the connection can be reused for the next check
+            byte[] buffer = new byte[2048];
+            while (in.read(buffer) != -1) {
+                // discard
             }
-            String responseStr = sb.toString();
-            parseResponse(responseStr);
+            return counts;
         } catch (Exception e) {
-            Log.w(this.getClass().getSimpleName(), "Could not check for messages", e);
+            Log.w(PardusMessageChecker.class.getSimpleName(), "Could not check for messages", e);
+            return null;
         }
 	}
 
 	/**
-	 * Helper method to parse the msgFrame for new messages/logs and display the
-	 * result.
-	 * 
-	 * @param response
-	 *            the content of the msgFrame
+	 * Pauses the background message checking.
 	 */
-	private void parseResponse(String response) {
-		Matcher matcher;
-		String text = "";
-		matcher = patternStatus.matcher(response);
-		if (matcher.find()) {
-			text += matcher.group(1).replaceAll("<.*?>", "") + "\n";
+	public synchronized void pause() {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(),
+					"Pausing Pardus Message Checker");
+		}
+		paused = true;
+		cancelCheck();
+		if (connectivityManager != null) {
+			try {
+				connectivityManager.unregisterNetworkCallback(networkCallback);
+			} catch (IllegalArgumentException ignored) {
+				// not registered
+			}
+		}
+	}
+
+	/**
+	 * Resumes the background message checking and checks for new messages
+	 * shortly.
+	 */
+	public synchronized void resume() {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(),
+					"Resuming Pardus Message Checker");
 		}
-		matcher = patternPm.matcher(response);
-		if (matcher.find()) {
-			text += "PM:" + matcher.group(1) + " ";
+		paused = false;
+		offline = false;
+		if (connectivityManager != null) {
+			try {
+				// reports the current network right away if there is one
+				connectivityManager.registerDefaultNetworkCallback(networkCallback);
+				offline = connectivityManager.getActiveNetwork() == null;
+			} catch (RuntimeException e) {
+				Log.w(this.getClass().getSimpleName(), "Unable to watch connectivity", e);
+			}
 		}
-		matcher = patternAm.matcher(response);
-		if (matcher.find()) {
-			text += "AM:" + matcher.group(1) + " ";
+		nextDelayMillis = delayMillis / ACTIVE_DIVISOR;
+		scheduleCheck(IMMEDIATE_DELAY_MILLIS);
+	}
+
+	/**
+	 * Checks for new messages shortly. Calls arriving in quick succession
+	 * result in a single check.
+	 */
+	public synchronized void restart() {
+		nextDelayMillis = delayMillis / ACTIVE_DIVISOR;
+		scheduleCheck(IMMEDIATE_DELAY_MILLIS);
+	}
+
+	/**
+	 * Notes that the user has loaded a game page, which makes the following
+	 * checks frequent again.
+	 */
+	public synchronized void onPageActivity() {
+		long activeDelayMillis = delayMillis / ACTIVE_DIVISOR;
+		if (nextDelayMillis > activeDelayMillis) {
+			// the user is back after being idle
+			nextDelayMillis = activeDelayMillis;
+			scheduleCheck(activeDelayMillis);
 		}
-		matcher = patternTrade.matcher(response);
-		if (matcher.find()) {
-			text += "Trade:" + matcher.group(1) + " ";
+	}
+
+	/**
+	 * Displays counters read from a response the game page received itself
+	 * and postpones the next check, so separate checks are only made while
+	 * the user is idle. May be called on any thread.
+	 * 
+	 * @param counts
+	 *            the counters found in the response, which may be a part of
+	 *            the msgFrame's only
+	 */
+	synchronized void onCountsObserved(PardusMessageCounts counts) {
+		countsObserved = true;
+		String universe = this.universe;
+		if (universe == null) {
+			return;
 		}
-		matcher = patternMission.matcher(response);
-		if (matcher.find()) {
-			text += "Mission:" + matcher.group(1) + " ";
+		// counters and status missing from the response keep their last known values
+		PardusMessageCounts merged = counts.mergedInto(countsTable.get(universe));
+		countsTable.put(universe, merged);
+		if (PardusPreferences.isCheckAllUniverses()) {
+			handler.post(new NotifyRunnable(formatTable(universe)));
+		} else {
+			handler.post(new NotifyRunnable(merged.format()));
 		}
-		matcher = patternPay.matcher(response);
-		if (matcher.find()) {
-			text += "Pay:" + matcher.group(1) + " ";
+		nextDelayMillis = delayMillis;
+		scheduleCheck(delayMillis, true);
+	}
+
+	/**
+	 * @return true if counters have been read from a response the game page
+	 *         received itself since the universe was set
+	 */
+	boolean isCountsObserved() {
+		return countsObserved;
+	}
+
+	/**
+	 * Stores the counters last seen in each universe for background checks
+	 * to compare against. Counters stored in an earlier session are removed
+	 * for universes not seen in this one, so background checks start over
+	 * from what they find there.
+	 */
+	void storeLastCounts() {
+		for (String universe : UNIVERSES) {
+			PardusMessageCounts counts = countsTable.get(universe);
+			PardusPreferences.setLastMessageCounts(universe, (counts == null) ? "" : counts.serialize());
 		}
-		matcher = patternCombat.matcher(response);
-		if (matcher.find()) {
-			text += "Combat:" + matcher.group(1) + " ";
+	}
+
+	/**
+	 * Schedules the next check unless one is due earlier already.
+	 * 
+	 * @param delay
+	 *            the delay in milli-seconds
+	 */
+	private synchronized void scheduleCheck(long delay) {
+		scheduleCheck(delay, false);
+	}
+
+	/**
+	 * Schedules the next check, replacing any check scheduled before.
+	 * 
+	 * @param delay
+	 *            the delay in milli-seconds
+	 * @param postpone
+	 *            true to replace a check due earlier as well, false to keep
+	 *            it
+	 */
+	private synchronized void scheduleCheck(long delay, boolean postpone) {
+		if (paused || offline) {
+			return;
 		}
-		matcher = patternMo.matcher(response);
-		if (matcher.find()) {
-			text += "MO:" + matcher.group(1) + " ";
+		// a check already running does not count as due
+		if (!postpone && nextCheck != null && !nextCheck.isDone()
+				&& nextCheck.getDelay(TimeUnit.MILLISECONDS) > 0
+				&& nextCheck.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+			return;
 		}
-		NotifyRunnable notify = new NotifyRunnable(text);
-		handler.post(notify);
+		cancelCheck();
+		long generation = ++checkGeneration;
+		nextCheck = scheduler.schedule(() -> runCheck(generation), delay, TimeUnit.MILLISECONDS);
 	}
 
 	/**
-	 * Pauses the background message checking.
+	 * Cancels the next check if scheduled.
 	 */
-	public void pause() {
-		if (BuildConfig.DEBUG) {
-			Log.v(this.getClass().getSimpleName(),
-					"Pausing Pardus Message Checker");
+	private synchronized void cancelCheck() {
+		if (nextCheck != null) {
+			nextCheck.cancel(false);
+			nextCheck = null;
 		}
-		task.cancel();
 	}
 
 	/**
-	 * Resumes the background message checking.
+	 * Checks for new messages and schedules the next check, backing off
+	 * exponentially since the last page activity. Does not schedule the
+	 * next check if another one has been scheduled meanwhile. Runs on the
+	 * scheduler thread.
+	 * 
+	 * @param generation
+	 *            the number of the scheduled check
 	 */
-	public void resume() {
-		if (BuildConfig.DEBUG) {
-			Log.v(this.getClass().getSimpleName(),
-					"Resuming Pardus Message Checker");
+	private void runCheck(long generation) {
+		synchronized (this) {
+			if (paused || offline || generation != checkGeneration) {
+				return;
+			}
 		}
-		final String startingUniverse = universe;
-		task = new TimerTask() {
-
-			@Override
-			public void run() {
-			    if (startingUniverse != null && startingUniverse.equals(universe)) {
-                    check();
-                }
+		check();
+		synchronized (this) {
+			if (generation != checkGeneration) {
+				// replaced while running, the replacement continues the chain
+				return;
 			}
-
-		};
-		timer.schedule(task, 1500, delayMillis);
+			long delay = nextDelayMillis;
+			nextDelayMillis = Math.min(nextDelayMillis * 2, (long) delayMillis * MAX_IDLE_FACTOR);
+			nextCheck = null;
+			scheduleCheck(delay);
+		}
 	}
 
 	/**
-	 * Restarts the background message checking task and immediately checks for
-	 * new messages.
+	 * Stops checking while the device is offline and checks right away once
+	 * it is back online. Called on a system thread.
+	 * 
+	 * @param online
+	 *            true if a network has become available, false if it has
+	 *            been lost
 	 */
-	public void restart() {
-		pause();
-		resume();
+	private synchronized void onConnectivityChanged(boolean online) {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(), online ? "Online" : "Offline");
+		}
+		if (online) {
+			boolean wasOffline = offline;
+			offline = false;
+			if (wasOffline) {
+				// catch up on what arrived meanwhile
+				scheduleCheck(IMMEDIATE_DELAY_MILLIS);
+			}
+		} else {
+			offline = connectivityManager.getActiveNetwork() == null;
+			if (offline) {
+				cancelCheck();
+			}
+		}
 	}
 
 	/**
@@ -247,11 +496,13 @@ public class PardusMessageChecker {
 		}
 		this.universe = universe;
         this.cookies = cookies;
+		countsObserved = false;
 		if (universe == null) {
 			if (BuildConfig.DEBUG) {
 				Log.v(this.getClass().getSimpleName(),
 						"Message checker assumes the user logged out");
 			}
+			countsTable.clear();
 			NotifyRunnable notify = new NotifyRunnable("");
 			handler.post(notify);
 			return;
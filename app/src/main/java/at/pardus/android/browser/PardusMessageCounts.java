@@ -0,0 +1,358 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The numbers of new messages and logs and the status message shown in the msgFrame. Read from the msgFrame in a
+ * single pass that ends as soon as all of them have been found.
+ */
+final class PardusMessageCounts {
+
+    /**
+     * Value of counters not found in the msgFrame.
+     */
+    static final int UNKNOWN = -1;
+
+    private static final String COUNTER_START = "<span id=\"new_";
+
+    private static final String COUNTER_END = "</span>";
+
+    private static final String STATUS_START = "px;'> ";
+
+    private static final String STATUS_END = "</font></td></tr></table>";
+
+    private static final int BUFFER_SIZE = 16384;
+
+    /**
+     * Characters kept available after the current position, the maximum length of a status line read.
+     */
+    private static final int LOOKAHEAD = 4096;
+
+    /**
+     * Buffer reused by parses on the same thread, checks run on few threads.
+     */
+    private static final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+    int pm = UNKNOWN;
+    int am = UNKNOWN;
+    int trade = UNKNOWN;
+    int mission = UNKNOWN;
+    int pay = UNKNOWN;
+    int combat = UNKNOWN;
+    int mo = UNKNOWN;
+    String status;
+
+    /**
+     * Reads the msgFrame up to the point where all counters and the status message have been found.
+     *
+     * @param in
+     *         the msgFrame, not closed
+     * @return the counters found
+     * @throws IOException
+     *         if reading fails
+     */
+    static PardusMessageCounts parse(Reader in) throws IOException {
+        PardusMessageCounts counts = new PardusMessageCounts();
+        char[] buffer = buffers.get();
+        int length = 0;
+        int pos = 0;
+        boolean eof = false;
+        while (true) {
+            if (length - pos < LOOKAHEAD && !eof) {
+                System.arraycopy(buffer, pos, buffer, 0, length - pos);
+                length -= pos;
+                pos = 0;
+                while (length < buffer.length) {
+                    int read = in.read(buffer, length, buffer.length - length);
+                    if (read == -1) {
+                        eof = true;
+                        break;
+                    }
+                    length += read;
+                }
+            }
+            if (pos >= length) {
+                break;
+            }
+            char c = buffer[pos];
+            if (c == '<' && startsWith(buffer, pos, length, COUNTER_START)) {
+                pos = counts.readCounter(buffer, pos + COUNTER_START.length(), length);
+                if (counts.isComplete()) {
+                    break;
+                }
+            } else if (c == 'p' && counts.status == null && startsWith(buffer, pos, length, STATUS_START)) {
+                counts.readStatus(buffer, pos + STATUS_START.length(), length);
+                if (counts.isComplete()) {
+                    break;
+                }
+            }
+            pos++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return true if all counters and the status message have been found
+     */
+    boolean isComplete() {
+        return pm != UNKNOWN && am != UNKNOWN && trade != UNKNOWN && mission != UNKNOWN && pay != UNKNOWN
+                && combat != UNKNOWN && mo != UNKNOWN && status != null;
+    }
+
+    /**
+     * @return true if neither a counter nor the status message has been found
+     */
+    boolean isEmpty() {
+        return pm == UNKNOWN && am == UNKNOWN && trade == UNKNOWN && mission == UNKNOWN && pay == UNKNOWN
+                && combat == UNKNOWN && mo == UNKNOWN && status == null;
+    }
+
+    /**
+     * @return the text to display: the status message on its own line followed by the counters found
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        if (status != null) {
+            text.append(status).append('\n');
+        }
+        append(text, "PM:", pm);
+        append(text, "AM:", am);
+        append(text, "Trade:", trade);
+        append(text, "Mission:", mission);
+        append(text, "Pay:", pay);
+        append(text, "Combat:", combat);
+        append(text, "MO:", mo);
+        return text.toString();
+    }
+
+    /**
+     * @return the text to display for counters above zero only, empty if there are none
+     */
+    String formatNew() {
+        StringBuilder text = new StringBuilder();
+        appendNew(text, "PM:", pm);
+        appendNew(text, "AM:", am);
+        appendNew(text, "Trade:", trade);
+        appendNew(text, "Mission:", mission);
+        appendNew(text, "Pay:", pay);
+        appendNew(text, "Combat:", combat);
+        appendNew(text, "MO:", mo);
+        return text.toString();
+    }
+
+    /**
+     * @param previous
+     *         counters read earlier, may be null
+     * @return true if any counter is above its earlier value or above zero if it was not known
+     */
+    boolean isIncreasedFrom(PardusMessageCounts previous) {
+        if (previous == null) {
+            previous = new PardusMessageCounts();
+        }
+        return pm > Math.max(previous.pm, 0) || am > Math.max(previous.am, 0)
+                || trade > Math.max(previous.trade, 0) || mission > Math.max(previous.mission, 0)
+                || pay > Math.max(previous.pay, 0) || combat > Math.max(previous.combat, 0)
+                || mo > Math.max(previous.mo, 0);
+    }
+
+    /**
+     * @param previous
+     *         counters read earlier, may be null
+     * @return new counters holding these counters and status message, and the earlier ones where these are
+     * unknown
+     */
+    PardusMessageCounts mergedInto(PardusMessageCounts previous) {
+        if (previous == null) {
+            previous = new PardusMessageCounts();
+        }
+        PardusMessageCounts merged = new PardusMessageCounts();
+        merged.pm = (pm != UNKNOWN) ? pm : previous.pm;
+        merged.am = (am != UNKNOWN) ? am : previous.am;
+        merged.trade = (trade != UNKNOWN) ? trade : previous.trade;
+        merged.mission = (mission != UNKNOWN) ? mission : previous.mission;
+        merged.pay = (pay != UNKNOWN) ? pay : previous.pay;
+        merged.combat = (combat != UNKNOWN) ? combat : previous.combat;
+        merged.mo = (mo != UNKNOWN) ? mo : previous.mo;
+        merged.status = (status != null) ? status : previous.status;
+        return merged;
+    }
+
+    /**
+     * @return the counters delimited by commas, without the status message
+     */
+    String serialize() {
+        return pm + "," + am + "," + trade + "," + mission + "," + pay + "," + combat + "," + mo;
+    }
+
+    /**
+     * @param serialized
+     *         counters as returned by {@link #serialize()}
+     * @return the counters or null if the string does not hold counters
+     */
+    static PardusMessageCounts deserialize(String serialized) {
+        String[] values = serialized.split(",");
+        if (values.length != 7) {
+            return null;
+        }
+        PardusMessageCounts counts = new PardusMessageCounts();
+        try {
+            counts.pm = Integer.parseInt(values[0]);
+            counts.am = Integer.parseInt(values[1]);
+            counts.trade = Integer.parseInt(values[2]);
+            counts.mission = Integer.parseInt(values[3]);
+            counts.pay = Integer.parseInt(values[4]);
+            counts.combat = Integer.parseInt(values[5]);
+            counts.mo = Integer.parseInt(values[6]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return counts;
+    }
+
+    private static void append(StringBuilder text, String label, int count) {
+        if (count != UNKNOWN) {
+            text.append(label).append(count).append(' ');
+        }
+    }
+
+    private static void appendNew(StringBuilder text, String label, int count) {
+        if (count > 0) {
+            text.append(label).append(count).append(' ');
+        }
+    }
+
+    /**
+     * Reads a counter of the form {@code <span id="new_name">digits</span>}, keeping the first value found for
+     * each counter.
+     *
+     * @param start
+     *         the position of the counter's name
+     * @return the position to continue scanning at
+     */
+    private int readCounter(char[] buffer, int start, int length) {
+        int pos = start;
+        while (pos < length && buffer[pos] != '"') {
+            pos++;
+        }
+        int nameEnd = pos;
+        if (pos + 1 >= length || buffer[pos + 1] != '>') {
+            return start;
+        }
+        pos += 2;
+        int digitsStart = pos;
+        int value = 0;
+        while (pos < length && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            value = (value > (Integer.MAX_VALUE - 9) / 10) ? Integer.MAX_VALUE : value * 10 + (buffer[pos] - '0');
+            pos++;
+        }
+        if (pos == digitsStart || !startsWith(buffer, pos, length, COUNTER_END)) {
+            return start;
+        }
+        switch (nameEnd - start) {
+            case 2:
+                if (regionEquals(buffer, start, "ml")) {
+                    mission = (mission == UNKNOWN) ? value : mission;
+                } else if (regionEquals(buffer, start, "tl")) {
+                    trade = (trade == UNKNOWN) ? value : trade;
+                } else if (regionEquals(buffer, start, "pl")) {
+                    pay = (pay == UNKNOWN) ? value : pay;
+                } else if (regionEquals(buffer, start, "cl")) {
+                    combat = (combat == UNKNOWN) ? value : combat;
+                } else if (regionEquals(buffer, start, "mo")) {
+                    mo = (mo == UNKNOWN) ? value : mo;
+                }
+                break;
+            case 3:
+                if (regionEquals(buffer, start, "msg")) {
+                    pm = (pm == UNKNOWN) ? value : pm;
+                }
+                break;
+            case 4:
+                if (regionEquals(buffer, start, "amsg")) {
+                    am = (am == UNKNOWN) ? value : am;
+                }
+                break;
+            default:
+                break;
+        }
+        return pos + COUNTER_END.length() - 1;
+    }
+
+    /**
+     * Reads the status message, which is the rest of its line up to the last end marker on that line, without
+     * any tags. Lines without end marker do not hold the status message.
+     *
+     * @param start
+     *         the position after the status message's start marker
+     */
+    private void readStatus(char[] buffer, int start, int length) {
+        int lineEnd = start;
+        while (lineEnd < length && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+            lineEnd++;
+        }
+        int end = -1;
+        for (int pos = lineEnd - STATUS_END.length(); pos >= start; pos--) {
+            if (buffer[pos] == '<' && startsWith(buffer, pos, lineEnd, STATUS_END)) {
+                end = pos;
+                break;
+            }
+        }
+        if (end == -1) {
+            return;
+        }
+        StringBuilder text = new StringBuilder(end - start);
+        int pos = start;
+        while (pos < end) {
+            if (buffer[pos] == '<') {
+                int tagEnd = pos + 1;
+                while (tagEnd < end && buffer[tagEnd] != '>') {
+                    tagEnd++;
+                }
+                if (tagEnd < end) {
+                    pos = tagEnd + 1;
+                    continue;
+                }
+            }
+            text.append(buffer[pos++]);
+        }
+        status = text.toString();
+    }
+
+    /**
+     * @return true if the buffer holds the string at the position, within length
+     */
+    private static boolean startsWith(char[] buffer, int pos, int length, String s) {
+        if (pos + s.length() > length) {
+            return false;
+        }
+        return regionEquals(buffer, pos, s);
+    }
+
+    private static boolean regionEquals(char[] buffer, int pos, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
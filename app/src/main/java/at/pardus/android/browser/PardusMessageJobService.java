@@ -0,0 +1,214 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PersistableBundle;
+import android.util.Log;
+import android.webkit.CookieManager;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Checks for new messages/logs while the app is in the background. Checks are periodic jobs that only run with a
+ * network connection and enough battery, which the system batches with other apps' work. A notification is shown
+ * only when a counter has increased since it was last seen.
+ */
+public class PardusMessageJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final String CHANNEL_ID = "messages";
+
+    private static final String EXTRA_UNIVERSE = "universe";
+
+    private static final String[] UNIVERSES = { "artemis", "orion", "pegasus" };
+
+    private volatile boolean stopped;
+
+    /**
+     * Schedules periodic background checks of a universe, and of the other universes played if all universes are
+     * checked. Replaces checks scheduled before.
+     *
+     * @param context
+     *         the context to schedule the job from
+     * @param universe
+     *         the universe the user is logged in to
+     */
+    public static void schedule(Context context, String universe) {
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null) {
+            return;
+        }
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(EXTRA_UNIVERSE, universe);
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, PardusMessageJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresBatteryNotLow(true)
+                .setPeriodic(JobInfo.getMinPeriodMillis(), JobInfo.getMinPeriodMillis() / 2)
+                .setExtras(extras)
+                .build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(PardusMessageJobService.class.getSimpleName(), "Unable to schedule background message checks");
+        } else if (BuildConfig.DEBUG) {
+            Log.v(PardusMessageJobService.class.getSimpleName(), "Scheduled background message checks");
+        }
+    }
+
+    /**
+     * Cancels scheduled background checks and removes their notification.
+     *
+     * @param context
+     *         the context the job has been scheduled from
+     */
+    public static void cancel(Context context) {
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID);
+        }
+        NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+        if (notificationManager != null) {
+            notificationManager.cancel(NOTIFICATION_ID);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // the app process may have been started for this job only
+        PardusPreferences.init(getApplicationContext(), null);
+        String universe = params.getExtras().getString(EXTRA_UNIVERSE);
+        if (universe == null || !PardusPreferences.isBackgroundCheck()) {
+            return false;
+        }
+        stopped = false;
+        new Thread(() -> {
+            check(universe);
+            jobFinished(params, false);
+        }, "PardusMessageJob").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // the next period checks again
+        stopped = true;
+        return false;
+    }
+
+    /**
+     * Checks the universes one after the other and notifies about those with increased counters. Universes without
+     * stored counters are not notified about on their first check. Runs on a separate thread.
+     *
+     * @param universe
+     *         the universe the user has been logged in to
+     */
+    private void check(String universe) {
+        String playedUniverses = PardusPreferences.getPlayedUniverses();
+        boolean checkAll = PardusPreferences.isCheckAllUniverses();
+        StringBuilder text = new StringBuilder();
+        String firstIncreased = null;
+        int increased = 0;
+        for (String checkedUniverse : UNIVERSES) {
+            if (stopped) {
+                return;
+            }
+            if (!checkedUniverse.equals(universe) && !(checkAll && playedUniverses.contains(checkedUniverse))) {
+                continue;
+            }
+            String url = PardusConstants.getUniverseUrl(checkedUniverse, PardusConstants.msgFrame);
+            String cookies = CookieManager.getInstance().getCookie(url);
+            if (cookies == null) {
+                continue;
+            }
+            PardusMessageCounts counts;
+            try {
+                counts = PardusMessageChecker.fetch(new URL(url), cookies);
+            } catch (MalformedURLException e) {
+                Log.e(getClass().getSimpleName(), "Error parsing URL " + url);
+                continue;
+            }
+            if (counts == null || counts.isEmpty()) {
+                // not reachable or logged out
+                continue;
+            }
+            PardusMessageCounts lastCounts = PardusMessageCounts.deserialize(
+                    PardusPreferences.getLastMessageCounts(checkedUniverse));
+            // without counters seen in the app the first check only sets the baseline
+            if (lastCounts != null && counts.isIncreasedFrom(lastCounts)) {
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                String name = Character.toUpperCase(checkedUniverse.charAt(0)) + checkedUniverse.substring(1);
+                text.append(name).append(": ").append(counts.formatNew());
+                firstIncreased = (firstIncreased == null) ? name : firstIncreased;
+                increased++;
+            }
+            // lower counters are remembered too, so messages arriving after they have been read elsewhere count
+            PardusPreferences.setLastMessageCounts(checkedUniverse, counts.serialize());
+        }
+        if (BuildConfig.DEBUG) {
+            Log.v(getClass().getSimpleName(), "Background check found news in " + increased + " universes");
+        }
+        if (increased > 0) {
+            notify((increased == 1) ? "New messages in " + firstIncreased : "New messages", text.toString());
+        }
+    }
+
+    /**
+     * Shows or updates the new messages notification that opens the app.
+     *
+     * @param title
+     *         the title of the notification
+     * @param text
+     *         the counters to show
+     */
+    private void notify(String title, String text) {
+        NotificationManager notificationManager = getSystemService(NotificationManager.class);
+        if (notificationManager == null) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "New messages",
+                NotificationManager.IMPORTANCE_DEFAULT);
+        channel.setDescription("New messages and logs arriving while the app is in the background");
+        notificationManager.createNotificationChannel(channel);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, Pardus.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.icon)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true)
+                .build();
+        notificationManager.notify(NOTIFICATION_ID, notification);
+    }
+
+}
@@ -22,6 +22,8 @@ import android.content.SharedPreferences;
 
 import java.util.Date;
 
+import at.pardus.android.content.WebpTranscoder;
+
 /**
  * Offers static functions to retrieve and persistently store user preferences.
  */
@@ -232,6 +234,231 @@ public abstract class PardusPreferences {
         editor.apply();
     }
 
+    /**
+     * @return whether image pack files should be handed to the browser directly instead of through a local
+     * web server, false if not stored yet
+     */
+    public static boolean isInterceptImages() {
+        return preferences.getBoolean("interceptImages", false);
+    }
+
+    /**
+     * Stores whether to hand image pack files to the browser directly.
+     *
+     * @param interceptImages
+     *         true to serve files in-process, false to use a local web server
+     */
+    public static void setInterceptImages(boolean interceptImages) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("interceptImages", interceptImages);
+        editor.apply();
+    }
+
+    /**
+     * @return whether recently used image pack files should be kept in memory, true if not stored yet
+     */
+    public static boolean isImageCache() {
+        return preferences.getBoolean("imageCache", true);
+    }
+
+    /**
+     * Stores whether to keep recently used image pack files in memory.
+     *
+     * @param imageCache
+     *         true to cache files in memory, false to always read them from storage
+     */
+    public static void setImageCache(boolean imageCache) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("imageCache", imageCache);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to keep downloaded image packs zipped instead of extracting them, false if not stored
+     * yet
+     */
+    public static boolean isImagePackArchive() {
+        return preferences.getBoolean("imagePackArchive", false);
+    }
+
+    /**
+     * Stores whether to keep downloaded image packs zipped instead of extracting them.
+     *
+     * @param imagePackArchive
+     *         true to serve image packs from their archive, false to extract them
+     */
+    public static void setImagePackArchive(boolean imagePackArchive) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("imagePackArchive", imagePackArchive);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to extract image packs while downloading them, true if not stored yet
+     */
+    public static boolean isStreamInstall() {
+        return preferences.getBoolean("streamInstall", true);
+    }
+
+    /**
+     * Stores whether to extract image packs while downloading them.
+     *
+     * @param streamInstall
+     *         true to extract while downloading, false to download the whole archive first
+     */
+    public static void setStreamInstall(boolean streamInstall) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("streamInstall", streamInstall);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to download image packs over several connections at once, false if not stored yet
+     */
+    public static boolean isSegmentedDownload() {
+        return preferences.getBoolean("segmentedDownload", false);
+    }
+
+    /**
+     * Stores whether to download image packs over several connections at once.
+     *
+     * @param segmentedDownload
+     *         true to download segments of image packs concurrently, false to download them in a single stream
+     */
+    public static void setSegmentedDownload(boolean segmentedDownload) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("segmentedDownload", segmentedDownload);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to read new messages/logs counters from the game's AJAX responses, false if not stored yet
+     */
+    public static boolean isAjaxTap() {
+        return preferences.getBoolean("ajaxTap", false);
+    }
+
+    /**
+     * Stores whether to read new messages/logs counters from the game's AJAX responses.
+     *
+     * @param ajaxTap
+     *         true to fetch the game's AJAX requests in place of the browser and read their counters, false to
+     *         rely on checking the msgFrame
+     */
+    public static void setAjaxTap(boolean ajaxTap) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("ajaxTap", ajaxTap);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to check all universes played for new messages/logs, false if not stored yet
+     */
+    public static boolean isCheckAllUniverses() {
+        return preferences.getBoolean("checkAllUniverses", false);
+    }
+
+    /**
+     * Stores whether to check all universes played for new messages/logs.
+     *
+     * @param checkAllUniverses
+     *         true to check all universes played at once, false to check the current universe only
+     */
+    public static void setCheckAllUniverses(boolean checkAllUniverses) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("checkAllUniverses", checkAllUniverses);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to check for new messages/logs while the app is in the background, false if not stored yet
+     */
+    public static boolean isBackgroundCheck() {
+        return preferences.getBoolean("backgroundCheck", false);
+    }
+
+    /**
+     * Stores whether to check for new messages/logs while the app is in the background.
+     *
+     * @param backgroundCheck
+     *         true to check periodically and notify about new messages/logs while the app is in the background,
+     *         false to only check while it is shown
+     */
+    public static void setBackgroundCheck(boolean backgroundCheck) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("backgroundCheck", backgroundCheck);
+        editor.apply();
+    }
+
+    /**
+     * @param universe
+     *         the universe the counters belong to
+     * @return the new messages/logs counters last seen in the universe delimited by commas, empty if not stored yet
+     */
+    public static String getLastMessageCounts(String universe) {
+        return preferences.getString("lastMessageCounts_" + universe, "");
+    }
+
+    /**
+     * Stores the new messages/logs counters last seen in a universe.
+     *
+     * @param universe
+     *         the universe the counters belong to
+     * @param counts
+     *         the counters delimited by commas
+     */
+    public static void setLastMessageCounts(String universe, String counts) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("lastMessageCounts_" + universe, counts);
+        editor.apply();
+    }
+
+    /**
+     * @return whether to create WebP variants of image pack files at installation, false if not stored yet
+     */
+    public static boolean isImagePackWebp() {
+        return preferences.getBoolean("imagePackWebp", false);
+    }
+
+    /**
+     * Stores whether to create WebP variants of image pack files at installation.
+     *
+     * @param imagePackWebp
+     *         true to transcode image pack files to WebP, false to serve the originals
+     */
+    public static void setImagePackWebp(boolean imagePackWebp) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("imagePackWebp", imagePackWebp);
+        editor.apply();
+    }
+
+    /**
+     * @return whether WebP variants of tiles should be downscaled to their displayed size, false if not stored
+     * yet
+     */
+    public static boolean isImagePackDownscale() {
+        return preferences.getBoolean("imagePackDownscale", false);
+    }
+
+    /**
+     * Stores whether WebP variants of tiles should be downscaled to their displayed size.
+     *
+     * @param imagePackDownscale
+     *         true to downscale tiles, false to keep their size
+     */
+    public static void setImagePackDownscale(boolean imagePackDownscale) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean("imagePackDownscale", imagePackDownscale);
+        editor.apply();
+    }
+
+    /**
+     * @return the size in pixels a tile takes up on screen at the webview's default scale
+     */
+    public static int getDisplayedTileSize() {
+        return Math.round(WebpTranscoder.TILE_SIZE * defaultInitialScale / 100f);
+    }
+
     /**
      * @return whether ship movement should be animated, false if not stored yet
      */
@@ -429,6 +656,82 @@ public abstract class PardusPreferences {
         editor.apply();
     }
 
+    /**
+     * @return the date of the next scheduled comparison of storage locations
+     */
+    public static Date getNextStorageCheck() {
+        return new Date(preferences.getLong("storageCheck", 0));
+    }
+
+    /**
+     * Stores the date to next compare storage locations for the image pack.
+     *
+     * @param storageCheck
+     *         the date of the next scheduled storage check
+     */
+    public static void setNextStorageCheck(Date storageCheck) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putLong("storageCheck", storageCheck.getTime());
+        editor.apply();
+    }
+
+    /**
+     * @return the directory the image pack has been moved away from, or a copy of it that has been dropped, that is
+     * still to be deleted or an empty string
+     */
+    public static String getImagePackMigratedFrom() {
+        return preferences.getString("imagePackMigratedFrom", "");
+    }
+
+    /**
+     * Stores the directory the image pack has been moved away from, which is deleted once no longer in use.
+     *
+     * @param imagePackMigratedFrom
+     *         the old image pack directory, an empty string once deleted
+     */
+    public static void setImagePackMigratedFrom(String imagePackMigratedFrom) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("imagePackMigratedFrom", imagePackMigratedFrom);
+        editor.apply();
+    }
+
+    /**
+     * @return the directory the image pack has been copied to, to be used from the next start, or an empty string
+     */
+    public static String getImagePackMigratedTo() {
+        return preferences.getString("imagePackMigratedTo", "");
+    }
+
+    /**
+     * Stores the directory the image pack has been copied to, to be used from the next start.
+     *
+     * @param imagePackMigratedTo
+     *         the new image pack directory, an empty string once used or dropped
+     */
+    public static void setImagePackMigratedTo(String imagePackMigratedTo) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("imagePackMigratedTo", imagePackMigratedTo);
+        editor.apply();
+    }
+
+    /**
+     * Switches to the image pack copied to another directory or drops the copy, marking the directory no longer in
+     * use for deletion. Written synchronously as the directory is deleted right after.
+     *
+     * @param imagePath
+     *         the image pack directory to use
+     * @param imagePackMigratedFrom
+     *         the image pack directory to delete
+     * @return true if the change has been written
+     */
+    public static boolean finishImagePackMigration(String imagePath, String imagePackMigratedFrom) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("imagePath", imagePath);
+        editor.putString("imagePackMigratedFrom", imagePackMigratedFrom);
+        editor.putString("imagePackMigratedTo", "");
+        return editor.commit();
+    }
+
     /**
      * @return the stored version code
      */
@@ -0,0 +1,387 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import at.pardus.android.content.ImagePackIndex;
+import at.pardus.android.content.LocalContentProxy;
+
+/**
+ * Moves the image pack to the faster of the external and internal storage locations. Storage locations are compared
+ * by the time it takes to read small files, which is what serving image pack files does. The image pack is copied in
+ * the background and only used from its new location after the copy has been verified and the app has been
+ * restarted.
+ */
+final class PardusStorageMigration {
+
+    private static final long CHECK_INTERVAL = 7 * 86400000L;
+
+    /**
+     * Factor by which the other location's read latency has to be lower to move the image pack.
+     */
+    private static final int MIN_SPEEDUP = 2;
+
+    /**
+     * Space to leave free on the other location after moving the image pack there.
+     */
+    private static final long MIN_FREE_SPACE = 50 * 1024 * 1024;
+
+    private static final String BENCHMARK_DIR = ".storagebench";
+
+    private static final int BENCHMARK_FILES = 64;
+
+    private static final int BENCHMARK_FILE_SIZE = 4096;
+
+    private static final int BENCHMARK_ROUNDS = 3;
+
+    private static final int COPY_THREADS = 4;
+
+    /**
+     * Appended to the path of the new image pack directory while copying.
+     */
+    private static final String MIGRATING_SUFFIX = ".migrating";
+
+    private final String currentPath;
+
+    private final String otherPath;
+
+    /**
+     * @param currentPath
+     *         the directory the image pack is served from
+     * @param otherPath
+     *         the image pack directory in the other storage location
+     */
+    private PardusStorageMigration(String currentPath, String otherPath) {
+        this.currentPath = currentPath;
+        this.otherPath = otherPath;
+    }
+
+    /**
+     * Switches to an image pack copied on an earlier run. Must be called before the image pack path is determined,
+     * so nothing is installed into the old directory after the switch. The copy is dropped instead if the image pack
+     * has changed since it was copied, e.g. because an update has been installed. The directory no longer in use is
+     * deleted by {@link #start(String, File, File)} once the switch has been stored.
+     */
+    static void finish() {
+        String migratedTo = PardusPreferences.getImagePackMigratedTo();
+        if (migratedTo.isEmpty()) {
+            return;
+        }
+        String imagePath = PardusPreferences.getImagePath();
+        boolean unchanged;
+        try {
+            unchanged = Arrays.equals(Files.readAllBytes(new File(imagePath, ImagePackIndex.FILE_NAME).toPath()),
+                    Files.readAllBytes(new File(migratedTo, ImagePackIndex.FILE_NAME).toPath()));
+        } catch (IOException e) {
+            unchanged = false;
+        }
+        if (unchanged) {
+            Log.i(PardusStorageMigration.class.getSimpleName(), "Switching to the image pack moved to " + migratedTo);
+            PardusPreferences.finishImagePackMigration(migratedTo, imagePath);
+        } else {
+            Log.i(PardusStorageMigration.class.getSimpleName(), "Image pack changed after moving it, dropping "
+                    + migratedTo);
+            PardusPreferences.finishImagePackMigration(imagePath, migratedTo);
+        }
+    }
+
+    /**
+     * Deletes an image pack directory no longer in use since an earlier start and starts a separate thread to
+     * compare the storage locations and move the image pack if due.
+     *
+     * @param currentPath
+     *         the directory the image pack is served from
+     * @param externalDir
+     *         the external directory of the app, may be null
+     * @param internalDir
+     *         the internal directory of the app
+     */
+    static void start(String currentPath, File externalDir, File internalDir) {
+        if (currentPath == null || externalDir == null || internalDir == null) {
+            return;
+        }
+        String externalPath = externalDir.getAbsolutePath() + PardusImagePack.EXTERNAL_SUB_DIR;
+        String internalPath = internalDir.getAbsolutePath() + PardusImagePack.INTERNAL_SUB_DIR;
+        String otherPath;
+        if (currentPath.equals(externalPath)) {
+            otherPath = internalPath;
+        } else if (currentPath.equals(internalPath)) {
+            otherPath = externalPath;
+        } else {
+            return;
+        }
+        new Thread(() -> new PardusStorageMigration(currentPath, otherPath).run(), "StorageMigration").start();
+    }
+
+    /**
+     * Cleans up, compares the storage locations and moves the image pack.
+     */
+    private void run() {
+        String migratedFrom = PardusPreferences.getImagePackMigratedFrom();
+        if (!migratedFrom.isEmpty() && !migratedFrom.equals(currentPath)) {
+            Log.i(getClass().getSimpleName(), "Deleting image pack no longer in use at " + migratedFrom);
+            PardusDownloadListener.deleteDir(new File(migratedFrom));
+            PardusPreferences.setImagePackMigratedFrom("");
+        }
+        Date now = new Date();
+        if (PardusPreferences.getNextStorageCheck().after(now)) {
+            return;
+        }
+        PardusPreferences.setNextStorageCheck(new Date(now.getTime() + CHECK_INTERVAL));
+        File current = new File(currentPath);
+        File other = new File(otherPath);
+        if (!currentPath.equals(PardusPreferences.getImagePath()) || !new PardusImagePack(currentPath).isInstalled()
+                || new File(current, LocalContentProxy.ON_DEMAND_MARKER).exists()) {
+            // nothing worth moving, files of image packs installed on demand keep arriving
+            return;
+        }
+        long currentLatency = benchmark(current.getParentFile());
+        long otherLatency = benchmark(other.getParentFile());
+        if (BuildConfig.DEBUG) {
+            Log.d(getClass().getSimpleName(), "Small file read latency: " + currentLatency + " us at " + currentPath
+                    + ", " + otherLatency + " us at " + otherPath);
+        }
+        if (currentLatency == -1 || otherLatency == -1 || otherLatency * MIN_SPEEDUP > currentLatency) {
+            return;
+        }
+        long size = sizeOf(current);
+        if (other.getParentFile().getUsableSpace() < size + MIN_FREE_SPACE) {
+            Log.i(getClass().getSimpleName(), "Not enough space to move the image pack to " + otherPath);
+            return;
+        }
+        if (migrate(current, other)) {
+            // switched to by finish() on the next start, installations meanwhile still go to currentPath
+            PardusPreferences.setImagePackMigratedTo(otherPath);
+            Log.i(getClass().getSimpleName(), "Moved image pack to " + otherPath + ", used from next start");
+        }
+    }
+
+    /**
+     * Measures the time it takes to open and read a small file that is in the page cache, which is dominated by
+     * the storage location's per-file overhead, e.g. of a FUSE file system.
+     *
+     * @param dir
+     *         the directory to write test files into
+     * @return the median latency in microseconds or -1 if the location cannot be written to
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private long benchmark(File dir) {
+        File benchmarkDir = new File(dir, BENCHMARK_DIR);
+        PardusDownloadListener.deleteDir(benchmarkDir);
+        if (!benchmarkDir.mkdirs()) {
+            return -1;
+        }
+        try {
+            byte[] data = new byte[BENCHMARK_FILE_SIZE];
+            Random random = new Random();
+            random.nextBytes(data);
+            List<File> files = new ArrayList<>();
+            for (int i = 0; i < BENCHMARK_FILES; i++) {
+                File file = new File(benchmarkDir, i + ".png");
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(data);
+                }
+                files.add(file);
+            }
+            long[] samples = new long[BENCHMARK_FILES * BENCHMARK_ROUNDS];
+            int sample = 0;
+            byte[] buffer = new byte[BENCHMARK_FILE_SIZE];
+            for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+                Collections.shuffle(files, random);
+                for (File file : files) {
+                    long start = System.nanoTime();
+                    try (InputStream in = new FileInputStream(file)) {
+                        while (in.read(buffer) != -1) {
+                            // discard
+                        }
+                    }
+                    samples[sample++] = System.nanoTime() - start;
+                }
+            }
+            Arrays.sort(samples);
+            return samples[samples.length / 2] / 1000;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to benchmark " + dir, e);
+            return -1;
+        } finally {
+            PardusDownloadListener.deleteDir(benchmarkDir);
+        }
+    }
+
+    /**
+     * Copies the image pack to a directory next to the target, verifies the copy and moves it into place. Files
+     * copied by an earlier interrupted run are only verified. Gives up if the image pack changes meanwhile, e.g.
+     * because an update has been installed, keeping the copy to continue on the next run.
+     *
+     * @param source
+     *         the image pack directory
+     * @param target
+     *         the new image pack directory
+     * @return true if the image pack is in place at target
+     */
+    private boolean migrate(File source, File target) {
+        File indexFile = new File(source, ImagePackIndex.FILE_NAME);
+        long indexModified = indexFile.lastModified();
+        File copy = new File(target.getPath() + MIGRATING_SUFFIX);
+        List<String> paths = new ArrayList<>();
+        listFiles(source, "", paths);
+        Log.i(getClass().getSimpleName(), "Moving " + paths.size() + " image pack files to " + target);
+        long start = System.currentTimeMillis();
+        ExecutorService copiers = Executors.newFixedThreadPool(COPY_THREADS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (String path : paths) {
+            results.add(copiers.submit(() -> copyFile(new File(source, path), new File(copy, path))));
+        }
+        copiers.shutdown();
+        int failed = 0;
+        try {
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    failed++;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(getClass().getSimpleName(), Log.getStackTraceString(e));
+            copiers.shutdownNow();
+            return false;
+        }
+        if (failed > 0) {
+            Log.w(getClass().getSimpleName(), failed + " image pack files could not be copied");
+            return false;
+        }
+        if (indexFile.lastModified() != indexModified) {
+            Log.i(getClass().getSimpleName(), "Image pack changed while moving it");
+            return false;
+        }
+        // copies of hard linked files are separate files
+        PardusImagePackManifest manifest = PardusImagePackManifest.read(copy);
+        if (manifest != null) {
+            manifest.linkDuplicates(copy, paths);
+        }
+        // created empty when determining the image pack path
+        PardusDownloadListener.deleteDir(target);
+        if (!copy.renameTo(target)) {
+            Log.e(getClass().getSimpleName(), "Unable to move " + copy + " into place");
+            return false;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(getClass().getSimpleName(), "Moved image pack in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return true;
+    }
+
+    /**
+     * Copies a file unless a copy of the same size exists already and makes sure the copy's content matches.
+     * Runs on a copier thread.
+     *
+     * @param source
+     *         the file to copy
+     * @param target
+     *         the copy
+     * @return true if the copy matches the source
+     * @throws IOException
+     *         if reading or writing fails
+     */
+    private static boolean copyFile(File source, File target) throws IOException {
+        if (!target.isFile() || target.length() != source.length()) {
+            File dir = target.getParentFile();
+            // another copier may be creating the same directory concurrently
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            byte[] buffer = new byte[65536];
+            try (InputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(target)) {
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+                out.getFD().sync();
+            }
+        }
+        try (InputStream sourceIn = new FileInputStream(source); InputStream targetIn = new FileInputStream(target)) {
+            if (PardusImagePackManifest.hash(sourceIn).equals(PardusImagePackManifest.hash(targetIn))) {
+                return true;
+            }
+        }
+        Log.w(PardusStorageMigration.class.getSimpleName(), "Copy of " + source + " does not match");
+        // copied again on the next run
+        if (!target.delete()) {
+            throw new IOException("Unable to delete " + target);
+        }
+        return false;
+    }
+
+    /**
+     * @return the total size of the files below a directory
+     */
+    private static long sizeOf(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.isDirectory() ? sizeOf(file) : file.length();
+        }
+        return size;
+    }
+
+    /**
+     * Collects the paths of all files below a directory.
+     *
+     * @param dir
+     *         the directory to list
+     * @param prefix
+     *         the path of the directory relative to the image pack directory
+     * @param paths
+     *         the list to add the relative paths to
+     */
+    private static void listFiles(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                listFiles(file, name + "/", paths);
+            } else {
+                paths.add(name);
+            }
+        }
+    }
+
+}
@@ -175,7 +175,7 @@ public class PardusWebView extends WebViewGm {
 		}
 		this.messageChecker = messageChecker;
         PardusWebViewClient viewClient = new PardusWebViewClient(getScriptStore(), getWebViewClient()
-                .getJsBridgeName(), getWebViewClient().getSecret(), progress);
+                .getJsBridgeName(), getWebViewClient().getSecret(), progress, messageChecker);
 		setWebViewClient(viewClient);
 		if (BuildConfig.DEBUG) {
 			Log.v(this.getClass().getSimpleName(),
@@ -324,6 +324,17 @@ public class PardusWebView extends WebViewGm {
 		}
 	}
 
+	/**
+	 * Sets up an image pack installed on demand and moves to the login screen
+	 * once done.
+	 * 
+	 * @param srcUrl
+	 *            the URL the image pack is hosted at
+	 */
+	public void installImagePackOnDemand(String srcUrl) {
+		downloadListener.installOnDemand(srcUrl);
+	}
+
 	/**
 	 * Displays the local login screen.
 	 * 
@@ -518,6 +529,19 @@ public class PardusWebView extends WebViewGm {
 		messageChecker.setUniverse(null, null);
 	}
 
+	/**
+	 * Clears the website cache after the installed image pack has changed.
+	 * The local web server serves image pack files as immutable, so cached
+	 * copies would otherwise be used until the app is restarted.
+	 */
+	public void clearCacheOnImagePackChange() {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(),
+					"Clearing cache after image pack change");
+		}
+		clearCache(true);
+	}
+
 	/**
 	 * Deletes website cache, cookies, page properties and any stored form data.
 	 */
@@ -660,6 +684,8 @@ public class PardusWebView extends WebViewGm {
 			messageChecker.setUniverse(newUniverse, newUniverse == null ? null
 					: cookieManager.getCookie(url));
             activity.runOnUiThread(() -> activity.invalidateOptionsMenu());
+		} else if (newUniverse != null) {
+			messageChecker.onPageActivity();
 		}
 	}
 
@@ -24,6 +24,7 @@ import android.util.Log;
 import android.view.View;
 import android.webkit.WebResourceError;
 import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.widget.ProgressBar;
 
@@ -32,6 +33,7 @@ import at.pardus.android.browser.js.JavaScriptLinks;
 import at.pardus.android.browser.js.JavaScriptLogin;
 import at.pardus.android.browser.js.JavaScriptSettings;
 import at.pardus.android.browser.js.JavaScriptUtils;
+import at.pardus.android.content.LocalContentProxy;
 import at.pardus.android.webview.gm.run.WebViewClientGm;
 import at.pardus.android.webview.gm.store.ScriptStore;
 
@@ -62,6 +64,8 @@ public class PardusWebViewClient extends WebViewClientGm {
 
 	private ProgressBar progress;
 
+	private PardusMessageChecker messageChecker;
+
 	private volatile float scale;
 
     /**
@@ -87,11 +91,15 @@ public class PardusWebViewClient extends WebViewClientGm {
 	 *            a random string that is added to calls of the GM API
 	 * @param progress
 	 *            the loading progress bar of the browser
+	 * @param messageChecker
+	 *            the message checker to pass counters read from the game's
+	 *            AJAX responses to
 	 */
 	public PardusWebViewClient(ScriptStore scriptStore, String jsBridgeName,
-			String secret, ProgressBar progress) {
+			String secret, ProgressBar progress, PardusMessageChecker messageChecker) {
 		super(scriptStore, jsBridgeName, secret);
 		this.progress = progress;
+		this.messageChecker = messageChecker;
 	}
 
     @Override
@@ -301,14 +309,38 @@ public class PardusWebViewClient extends WebViewClientGm {
 		if (BuildConfig.DEBUG) {
 			Log.v(this.getClass().getSimpleName(), "Loading resource " + url);
 		}
-		// new (status) message check after ajax loads
+		// new (status) message check after ajax loads unless their responses provide the counters
 		if (((PardusWebView) view).getRenderStatus() != RenderStatus.LOAD_START
-				&& url.contains(".pardus.at/main_ajax.php")) {
+				&& url.contains(".pardus.at/main_ajax.php")
+				&& !(PardusPreferences.isAjaxTap() && messageChecker.isCountsObserved())) {
 			evaluateJavascript(view, "(function() { setTimeout(function() { " + jsNewMsgCheck + " }, 3000) " +
                     "})()");
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see android.webkit.WebViewClient#shouldInterceptRequest(android.webkit.WebView,
+	 * android.webkit.WebResourceRequest)
+	 */
+	@Override
+	public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+		// image pack files requested from the virtual image pack origin are read from disk directly
+		WebResourceResponse response = LocalContentProxy.getInstance().intercept(request.getUrl());
+		if (response != null) {
+			return response;
+		}
+		// game ajax requests are fetched here to read the new messages/logs counters of their responses
+		if (PardusPreferences.isAjaxTap() && PardusAjaxTap.isTapped(request)) {
+			response = PardusAjaxTap.fetch(request, messageChecker);
+			if (response != null) {
+				return response;
+			}
+		}
+		return super.shouldInterceptRequest(view, request);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -320,7 +352,8 @@ public class PardusWebViewClient extends WebViewClientGm {
 			WebResourceError error) {
 		Log.w(this.getClass().getSimpleName(), "Error at " + request.getUrl() + "\n"
 				+ error.getErrorCode() + " " + error.getDescription());
-		if (request.getUrl().getHost() == null || !request.getUrl().getHost().equals("localhost")) {
+		String host = request.getUrl().getHost();
+		if (host == null || (!host.equals("localhost") && !host.equals(LocalContentProxy.VIRTUAL_HOST))) {
             PardusNotification.show(error.getDescription().toString());
         }
 	}
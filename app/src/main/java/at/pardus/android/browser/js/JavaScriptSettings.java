@@ -21,9 +21,13 @@ import android.app.Activity;
 import android.view.WindowManager;
 import android.webkit.JavascriptInterface;
 
+import at.pardus.android.browser.PardusImagePack;
+import at.pardus.android.browser.PardusMessageJobService;
 import at.pardus.android.browser.PardusNotification;
 import at.pardus.android.browser.PardusPreferences;
 import at.pardus.android.browser.PardusWebView;
+import at.pardus.android.content.LocalContentProxy;
+import at.pardus.android.content.WebpTranscoder;
 
 /**
  * Contains methods to be called by JavaScript from the Settings screen.
@@ -77,6 +81,26 @@ public class JavaScriptSettings {
 		settings += ",";
 		settings += Boolean.toString(PardusPreferences
 				.isRememberPageProperties());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isInterceptImages());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isImageCache());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isImagePackArchive());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isImagePackWebp());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isImagePackDownscale());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isStreamInstall());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isSegmentedDownload());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isAjaxTap());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isCheckAllUniverses());
+		settings += ",";
+		settings += Boolean.toString(PardusPreferences.isBackgroundCheck());
 		return settings;
 	}
 
@@ -247,6 +271,180 @@ public class JavaScriptSettings {
 		}
 	}
 
+	/**
+	 * Changes the interceptImages setting.
+	 */
+    @JavascriptInterface
+	public void setInterceptImages(boolean interceptImages) {
+		PardusPreferences.setInterceptImages(interceptImages);
+		LocalContentProxy.getInstance().setIntercepting(interceptImages);
+		String message = "";
+		if (browser.isLoggedIn()) {
+			browser.setCookies();
+			message = " (must reload Nav screen!)";
+		}
+		if (interceptImages) {
+			PardusNotification.show("Image pack files will be loaded directly" + message);
+		} else {
+			PardusNotification.show("Image pack files will be loaded through a local web server" + message);
+		}
+	}
+
+	/**
+	 * Changes the imageCache setting.
+	 */
+    @JavascriptInterface
+	public void setImageCache(boolean imageCache) {
+		PardusPreferences.setImageCache(imageCache);
+		LocalContentProxy.getInstance().setCacheSize(
+				imageCache ? LocalContentProxy.getDefaultCacheSize(activity) : 0);
+		if (imageCache) {
+			PardusNotification.show("Recently used images will be kept in memory");
+		} else {
+			PardusNotification.show("Images will always be read from storage");
+		}
+	}
+
+	/**
+	 * Changes the imagePackArchive setting.
+	 */
+	@JavascriptInterface
+	public void setImagePackArchive(boolean imagePackArchive) {
+		PardusPreferences.setImagePackArchive(imagePackArchive);
+		if (imagePackArchive) {
+			PardusNotification.show("Image packs downloaded from now on will be kept zipped");
+		} else {
+			PardusNotification.show("Image packs downloaded from now on will be extracted");
+		}
+	}
+
+	/**
+	 * Changes the imagePackWebp setting.
+	 */
+	@JavascriptInterface
+	public void setImagePackWebp(boolean imagePackWebp) {
+		PardusPreferences.setImagePackWebp(imagePackWebp);
+		if (imagePackWebp && !WebpTranscoder.isSupported()) {
+			PardusNotification.show("Converting images to WebP requires Android 10, images will be kept as they are");
+		} else if (imagePackWebp) {
+			PardusNotification.show("Images of image packs installed from now on will be converted to WebP");
+		} else {
+			PardusNotification.show("Images of image packs installed from now on will be kept as they are");
+		}
+	}
+
+	/**
+	 * Changes the imagePackDownscale setting.
+	 */
+	@JavascriptInterface
+	public void setImagePackDownscale(boolean imagePackDownscale) {
+		PardusPreferences.setImagePackDownscale(imagePackDownscale);
+		if (imagePackDownscale) {
+			PardusNotification.show("Converted tiles will be shrunk to " + PardusPreferences.getDisplayedTileSize()
+					+ " pixels if displayed smaller");
+		} else {
+			PardusNotification.show("Converted tiles will keep their size");
+		}
+	}
+
+	/**
+	 * Changes the streamInstall setting.
+	 */
+	@JavascriptInterface
+	public void setStreamInstall(boolean streamInstall) {
+		PardusPreferences.setStreamInstall(streamInstall);
+		if (streamInstall) {
+			PardusNotification.show("Image packs will be unzipped while downloading");
+		} else {
+			PardusNotification.show("Image packs will be unzipped after downloading");
+		}
+	}
+
+	/**
+	 * Changes the segmentedDownload setting.
+	 */
+	@JavascriptInterface
+	public void setSegmentedDownload(boolean segmentedDownload) {
+		PardusPreferences.setSegmentedDownload(segmentedDownload);
+		if (segmentedDownload) {
+			PardusNotification.show("Image packs will be downloaded over several connections");
+		} else {
+			PardusNotification.show("Image packs will be downloaded over a single connection");
+		}
+	}
+
+	/**
+	 * Verifies the installed image pack and repairs corrupt files.
+	 */
+	@JavascriptInterface
+	public void verifyImagePack() {
+		PardusImagePack imagePack = new PardusImagePack(PardusPreferences.getImagePath());
+		if (!imagePack.isInstalled()) {
+			PardusNotification.show("No image pack installed");
+		} else if (imagePack.verify(activity)) {
+			PardusNotification.show("Verifying image pack ...");
+		} else {
+			PardusNotification.show("Image pack verification already running");
+		}
+	}
+
+	/**
+	 * Removes the most recently installed image pack update.
+	 */
+	@JavascriptInterface
+	public void rollbackImagePack() {
+		PardusImagePack imagePack = new PardusImagePack(PardusPreferences.getImagePath());
+		if (!imagePack.isInstalled()) {
+			PardusNotification.show("No image pack installed");
+		} else if (imagePack.rollbackUpdate()) {
+			// drop images of the removed version cached by the browser
+			browser.post(() -> browser.clearCacheOnImagePackChange());
+			PardusNotification.show("Rolled back image pack update");
+		} else {
+			PardusNotification.show("No image pack update to roll back");
+		}
+	}
+
+	/**
+	 * Changes the ajaxTap setting.
+	 */
+	@JavascriptInterface
+	public void setAjaxTap(boolean ajaxTap) {
+		PardusPreferences.setAjaxTap(ajaxTap);
+		if (ajaxTap) {
+			PardusNotification.show("New messages will be read from the game's own page updates");
+		} else {
+			PardusNotification.show("New messages will be checked for separately");
+		}
+	}
+
+	/**
+	 * Changes the checkAllUniverses setting.
+	 */
+	@JavascriptInterface
+	public void setCheckAllUniverses(boolean checkAllUniverses) {
+		PardusPreferences.setCheckAllUniverses(checkAllUniverses);
+		if (checkAllUniverses) {
+			PardusNotification.show("All universes played will be checked for new messages");
+		} else {
+			PardusNotification.show("Only the current universe will be checked for new messages");
+		}
+	}
+
+	/**
+	 * Changes the backgroundCheck setting.
+	 */
+	@JavascriptInterface
+	public void setBackgroundCheck(boolean backgroundCheck) {
+		PardusPreferences.setBackgroundCheck(backgroundCheck);
+		if (backgroundCheck) {
+			PardusNotification.show("New messages will be checked for while the app is in the background");
+		} else {
+			PardusMessageJobService.cancel(activity);
+			PardusNotification.show("New messages will only be checked for while the app is shown");
+		}
+	}
+
 	/**
 	 * Deletes all cached data.
 	 */
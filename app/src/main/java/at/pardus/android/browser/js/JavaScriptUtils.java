@@ -80,6 +80,21 @@ public class JavaScriptUtils {
 		PardusPreferences.setPlayedUniverses(universes);
 	}
 
+	/**
+	 * Installs an image pack on demand: tiles are fetched as the game shows
+	 * them instead of downloading the whole pack first.
+	 * 
+	 * @param srcUrl
+	 *            the URL the image pack is hosted at
+	 */
+    @JavascriptInterface
+	public void useImagePackOnDemand(String srcUrl) {
+		if (BuildConfig.DEBUG) {
+			Log.v(this.getClass().getSimpleName(), "Installing image pack from " + srcUrl + " on demand");
+		}
+		pardusView.installImagePackOnDemand(srcUrl);
+	}
+
 	/**
 	 * Refreshes the notification display due to the assumption of having
 	 * received a (status) message.
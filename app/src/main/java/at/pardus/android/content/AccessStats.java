@@ -0,0 +1,250 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-file access counts and recency, persisted in a compact binary table to find the files worth keeping in
+ * memory from the start. The lowest ranked files are evicted once the table is full and whenever it is saved.
+ *
+ * The table holds a header (magic, version, entry count) followed by one record per file: its path as modified
+ * UTF-8, its access count and the minute of its last access.
+ */
+final class AccessStats {
+
+    private static final int MAGIC = 0x50415354;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum number of files tracked, in memory as well as on storage.
+     */
+    private static final int MAX_ENTRIES = 2048;
+
+    /**
+     * Number of top ranked files kept when trimming the table, leaving room for files accessed afterwards.
+     */
+    private static final int TRIMMED_ENTRIES = MAX_ENTRIES * 3 / 4;
+
+    /**
+     * Period in minutes after which an access counts half as much when ranking files.
+     */
+    private static final double HALF_LIFE_MINUTES = 7 * 24 * 60;
+
+    /**
+     * Access statistics of a single file.
+     */
+    private static final class Entry {
+
+        private final String path;
+
+        private final AtomicInteger count;
+
+        private volatile int lastAccess;
+
+        private Entry(String path, int count, int lastAccess) {
+            this.path = path;
+            this.count = new AtomicInteger(count);
+            this.lastAccess = lastAccess;
+        }
+
+        /**
+         * @return the access count, decayed by the time passed since the last access
+         */
+        private double score(int now) {
+            return count.get() * Math.pow(0.5, (now - lastAccess) / HALF_LIFE_MINUTES);
+        }
+
+    }
+
+    private final File file;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = false;
+
+    /**
+     * @param file
+     *         the file to persist the statistics in
+     */
+    AccessStats(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Counts an access to a file. Cheap enough to be called for every request.
+     *
+     * @param path
+     *         the path of the accessed file
+     */
+    void record(String path) {
+        Entry entry = entries.get(path);
+        int now = currentMinute();
+        if (entry == null) {
+            if (entries.size() >= MAX_ENTRIES) {
+                trim();
+            }
+            entry = new Entry(path, 0, now);
+            Entry existing = entries.putIfAbsent(path, entry);
+            if (existing != null) {
+                entry = existing;
+            }
+        }
+        entry.count.incrementAndGet();
+        entry.lastAccess = now;
+        dirty = true;
+    }
+
+    /**
+     * @param limit
+     *         the maximum number of paths to return
+     * @return the paths of the most used files, most used first
+     */
+    List<String> getHotSet(int limit) {
+        List<Entry> ranked = rank();
+        List<String> paths = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            paths.add(ranked.get(i).path);
+        }
+        return paths;
+    }
+
+    /**
+     * @param limit
+     *         the maximum number of files to describe
+     * @return the most used files with their access counts, for debugging
+     */
+    String describeHotSet(int limit) {
+        List<Entry> ranked = rank();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            Entry entry = ranked.get(i);
+            sb.append((i == 0) ? "" : ", ").append(entry.path).append(" (").append(entry.count.get()).append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the statistics in memory with the persisted ones.
+     */
+    void load() {
+        entries.clear();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(getClass().getSimpleName(), "Ignoring unknown access statistics format");
+                return;
+            }
+            int count = Math.min(in.readInt(), MAX_ENTRIES);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                entries.put(path, new Entry(path, in.readInt(), in.readInt()));
+            }
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error reading access statistics", e);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Persists the statistics if changed since loading or last saving.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        trim();
+        List<Entry> ranked = rank();
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ranked.size());
+            for (Entry entry : ranked) {
+                out.writeUTF(entry.path);
+                out.writeInt(entry.count.get());
+                out.writeInt(entry.lastAccess);
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error writing access statistics", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(getClass().getSimpleName(), "Unable to replace " + file);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Evicts the lowest ranked files if more than TRIMMED_ENTRIES are tracked, so files accessed from now on can
+     * replace files no longer used.
+     */
+    private synchronized void trim() {
+        if (entries.size() <= TRIMMED_ENTRIES) {
+            return;
+        }
+        List<Entry> ranked = rank();
+        for (int i = TRIMMED_ENTRIES; i < ranked.size(); i++) {
+            entries.remove(ranked.get(i).path, ranked.get(i));
+        }
+    }
+
+    /**
+     * @return all entries, most used first
+     */
+    private List<Entry> rank() {
+        int now = currentMinute();
+        // snapshot the scores, entries may be accessed while sorting
+        Map<Entry, Double> scores = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            scores.put(entry, entry.score(now));
+        }
+        List<Entry> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return ranked;
+    }
+
+    /**
+     * @return minutes since the epoch
+     */
+    private static int currentMinute() {
+        return (int) (System.currentTimeMillis() / 60000);
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import at.pardus.android.browser.BuildConfig;
+
+/**
+ * Lists the files of an installed image pack with their sizes and content ids along with the image pack's version
+ * and source URL. Written once an image pack has been installed or changed and loaded once per image pack, so
+ * lookups need no storage access. Files are kept in an open addressing table keyed by a 64-bit hash of their path.
+ */
+public final class ImagePackIndex {
+
+    /**
+     * Name of the index file within the image pack directory.
+     */
+    public static final String FILE_NAME = ".index";
+
+    private static final int MAGIC = 0x50494458;
+
+    private static final int FORMAT = 2;
+
+    private static final long EMPTY = 0;
+
+    private static final Map<String, ImagePackIndex> LOADED = new ConcurrentHashMap<>();
+
+    private final long version;
+
+    private final String srcUrl;
+
+    private final boolean complete;
+
+    private final String layers;
+
+    private int count;
+
+    private final long[] keys;
+
+    private final long[] sizes;
+
+    private final long[] contents;
+
+    private final int mask;
+
+    /**
+     * @param capacity
+     *         the number of files to make room for
+     */
+    private ImagePackIndex(long version, String srcUrl, boolean complete, String layers, int capacity) {
+        this.version = version;
+        this.srcUrl = srcUrl;
+        this.complete = complete;
+        this.layers = layers;
+        // at most half full, which keeps probe sequences short
+        int slots = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+        keys = new long[slots];
+        sizes = new long[slots];
+        contents = new long[slots];
+        mask = slots - 1;
+    }
+
+    /**
+     * @return the image pack version (yyyymmdd[0-9][0-9]) or -1 if unknown
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the URL the image pack is hosted at or null if unknown
+     */
+    public String getSrcUrl() {
+        return srcUrl;
+    }
+
+    /**
+     * @return false if files may be missing from the index, e.g. because they are fetched on demand
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the number of files listed
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param path
+     *         the path of a file relative to the image pack directory, without leading slash
+     * @return true if the file is part of the image pack
+     */
+    public boolean contains(String path) {
+        return size(path) != -1;
+    }
+
+    /**
+     * @param path
+     *         the path of a file relative to the image pack directory, without leading slash
+     * @return the size of the file or -1 if it is not part of the image pack
+     */
+    public long size(String path) {
+        int slot = find(path);
+        return (slot == -1) ? -1 : sizes[slot];
+    }
+
+    /**
+     * Identifies a file's content: files with the same content id have identical bytes.
+     *
+     * @param path
+     *         the path of a file relative to the image pack directory, without leading slash
+     * @return the leading 64 bits of the file's SHA-256 hash or 0 if unknown
+     */
+    public long contentId(String path) {
+        int slot = find(path);
+        return (slot == -1) ? 0 : contents[slot];
+    }
+
+    /**
+     * Returns the index of an image pack, loading it on first use.
+     *
+     * @param root
+     *         the image pack directory
+     * @return the index or null if the image pack has none or its index is outdated
+     */
+    public static ImagePackIndex get(File root) {
+        String key = root.getAbsolutePath();
+        ImagePackIndex index = LOADED.get(key);
+        if (index == null) {
+            index = read(root);
+            if (index != null) {
+                LOADED.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Lists the files of an image pack including its archive and update layers and stores the result as the image
+     * pack's index, replacing any previous one.
+     *
+     * @param root
+     *         the image pack directory
+     * @param hashes
+     *         maps the path of a file to its hex SHA-256 hash or null if unknown, null if no hashes are known
+     * @return the new index
+     * @throws IOException
+     *         if the image pack cannot be read or the index cannot be written
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static ImagePackIndex rebuild(File root, Function<String, String> hashes) throws IOException {
+        long start = System.currentTimeMillis();
+        List<File> layerDirs = ImagePackLayers.list(root);
+        Map<String, Long> files = new HashMap<>();
+        File archive = new File(root, LocalContentProxy.ARCHIVE_NAME);
+        if (archive.isFile()) {
+            try (ZipFile zipFile = new ZipFile(archive)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        files.put(entry.getName(), entry.getSize());
+                    }
+                }
+            }
+        }
+        listFiles(root, "", files);
+        for (File layer : layerDirs) {
+            listFiles(layer, "", files);
+        }
+        ImagePackIndex index = new ImagePackIndex(readVersion(root, layerDirs), readLine(root, layerDirs, "nfo_src"),
+                !new File(root, LocalContentProxy.ON_DEMAND_MARKER).isFile(), describe(layerDirs), files.size());
+        for (Map.Entry<String, Long> file : files.entrySet()) {
+            index.put(hash(file.getKey()), file.getValue(),
+                    (hashes == null) ? 0 : parseContentId(hashes.apply(file.getKey())));
+        }
+        File temp = new File(root, FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(index.version);
+            out.writeUTF(index.srcUrl == null ? "" : index.srcUrl);
+            out.writeBoolean(index.complete);
+            out.writeUTF(index.layers);
+            out.writeInt(index.count);
+            for (int slot = 0; slot < index.keys.length; slot++) {
+                if (index.keys[slot] != EMPTY) {
+                    out.writeLong(index.keys[slot]);
+                    out.writeLong(index.sizes[slot]);
+                    out.writeLong(index.contents[slot]);
+                }
+            }
+        }
+        if (!temp.renameTo(new File(root, FILE_NAME))) {
+            temp.delete();
+            throw new IOException("Unable to replace " + FILE_NAME);
+        }
+        LOADED.put(root.getAbsolutePath(), index);
+        if (BuildConfig.DEBUG) {
+            Log.v(ImagePackIndex.class.getSimpleName(), "Indexed " + index.count + " files of version "
+                    + index.version + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return index;
+    }
+
+    /**
+     * Removes the index of an image pack, e.g. before its files are changed.
+     *
+     * @param root
+     *         the image pack directory
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static void discard(File root) {
+        LOADED.remove(root.getAbsolutePath());
+        new File(root, FILE_NAME).delete();
+    }
+
+    /**
+     * @return the index stored in the image pack directory or null if there is none or it is outdated or corrupt
+     */
+    private static ImagePackIndex read(File root) {
+        File file = new File(root, FILE_NAME);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                return null;
+            }
+            long version = in.readLong();
+            String srcUrl = in.readUTF();
+            boolean complete = in.readBoolean();
+            String layers = in.readUTF();
+            if (!layers.equals(describe(ImagePackLayers.list(root)))) {
+                // layers changed without reindexing
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            ImagePackIndex index = new ImagePackIndex(version, srcUrl.isEmpty() ? null : srcUrl, complete, layers,
+                    count);
+            for (int i = 0; i < count; i++) {
+                index.put(in.readLong(), in.readLong(), in.readLong());
+            }
+            return index;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(ImagePackIndex.class.getSimpleName(), "Error reading " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the slot of a file or -1 if not listed
+     */
+    private int find(String path) {
+        long key = hash(path);
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Adds a file to the table.
+     */
+    private void put(long key, long size, long content) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            count++;
+        }
+        keys[slot] = key;
+        sizes[slot] = size;
+        contents[slot] = content;
+    }
+
+    /**
+     * @return the first slot to probe for a key
+     */
+    private int slot(long key) {
+        // mix the high bits in, the low bits alone pick the slot
+        long h = key ^ (key >>> 32);
+        h ^= h >>> 16;
+        return (int) h & mask;
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of a path, never {@link #EMPTY}
+     */
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return (h == EMPTY) ? 1 : h;
+    }
+
+    /**
+     * @return the leading 64 bits of a hex hash or 0 if not available
+     */
+    private static long parseContentId(String hash) {
+        if (hash == null || hash.length() < 16) {
+            return 0;
+        }
+        try {
+            return Long.parseUnsignedLong(hash.substring(0, 16), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return a description of the update layers an index has been built for
+     */
+    private static String describe(List<File> layerDirs) {
+        return layerDirs.isEmpty() ? "" : layerDirs.size() + ":" + layerDirs.get(layerDirs.size() - 1).getName();
+    }
+
+    /**
+     * @return the image pack version from nfo_upd or -1 if not available
+     */
+    private static long readVersion(File root, List<File> layerDirs) {
+        String version = readLine(root, layerDirs, "nfo_upd");
+        try {
+            return (version == null) ? -1 : Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the first line of an info file from the topmost layer containing it or the image pack's archive.
+     *
+     * @return the trimmed line or null if not available
+     */
+    private static String readLine(File root, List<File> layerDirs, String name) {
+        File file = new File(ImagePackLayers.locate(root, layerDirs, name), name);
+        try {
+            if (file.isFile()) {
+                try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                    return trim(in.readLine());
+                }
+            }
+            File archive = new File(root, LocalContentProxy.ARCHIVE_NAME);
+            if (archive.isFile()) {
+                try (ZipFile zipFile = new ZipFile(archive)) {
+                    ZipEntry entry = zipFile.getEntry(name);
+                    if (entry != null) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            return trim(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))
+                                    .readLine());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(ImagePackIndex.class.getSimpleName(), "Error reading " + name, e);
+        }
+        return null;
+    }
+
+    private static String trim(String line) {
+        return (line == null || line.trim().isEmpty()) ? null : line.trim();
+    }
+
+    /**
+     * Collects the sizes of all files below a directory except the update layers, the index and partial downloads.
+     *
+     * @param dir
+     *         the directory to list
+     * @param prefix
+     *         the path of the directory relative to the image pack directory
+     * @param files
+     *         the map to put the relative paths and sizes in
+     */
+    private static void listFiles(File dir, String prefix, Map<String, Long> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                if (!name.equals(ImagePackLayers.DIR_NAME)) {
+                    listFiles(child, name + "/", files);
+                }
+            } else if (!name.startsWith(FILE_NAME) && !name.endsWith(".part") && !name.endsWith(".journal")) {
+                files.put(name, child.length());
+            }
+        }
+    }
+
+}
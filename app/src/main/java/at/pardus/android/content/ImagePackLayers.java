@@ -0,0 +1,238 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores image pack updates as layers on top of the image pack directory, which is the base layer. Each update is
+ * installed into a staging directory and becomes a numbered layer below {@link #DIR_NAME} once complete, so a
+ * partial update never mixes with the files served. Layers are never changed afterwards: a file is served from the
+ * topmost layer containing it and rolling back an update drops its layer.
+ */
+public final class ImagePackLayers {
+
+    /**
+     * Name of the directory within the image pack directory holding the update layers.
+     */
+    public static final String DIR_NAME = ".layers";
+
+    private static final String STAGING_NAME = ".staging";
+
+    private static final String DROPPED_NAME = ".dropped";
+
+    private ImagePackLayers() {
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @return the update layers, bottom to top, not including the base layer
+     */
+    public static List<File> list(File root) {
+        File[] dirs = new File(root, DIR_NAME).listFiles(file -> file.isDirectory() && file.getName().matches("\\d+"));
+        List<File> layers = new ArrayList<>();
+        if (dirs == null) {
+            return layers;
+        }
+        Collections.addAll(layers, dirs);
+        Collections.sort(layers, (a, b) -> Integer.compare(Integer.parseInt(a.getName()),
+                Integer.parseInt(b.getName())));
+        return layers;
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @param path
+     *         the path of a file relative to the image pack directory
+     * @return the topmost layer containing the file, the image pack directory if no update layer does
+     */
+    public static File locate(File root, String path) {
+        return locate(root, list(root), path);
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @param layers
+     *         the update layers as returned by {@link #list(File)}
+     * @param path
+     *         the path of a file relative to the image pack directory
+     * @return the topmost layer containing the file, the image pack directory if no update layer does
+     */
+    public static File locate(File root, List<File> layers, String path) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            if (new File(layers.get(i), path).isFile()) {
+                return layers.get(i);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @param path
+     *         the path of a file relative to the image pack directory
+     * @return the file as served, which may not exist
+     */
+    public static File resolve(File root, String path) {
+        return new File(locate(root, path), path);
+    }
+
+    /**
+     * Creates an empty directory to install an update into, removing leftovers of an earlier failed update.
+     *
+     * @param root
+     *         the image pack directory
+     * @return the staging directory
+     * @throws IOException
+     *         if the directory cannot be created
+     */
+    public static File prepareStaging(File root) throws IOException {
+        File staging = new File(new File(root, DIR_NAME), STAGING_NAME);
+        delete(staging);
+        if (!staging.mkdirs()) {
+            throw new IOException("Unable to create directory " + staging);
+        }
+        return staging;
+    }
+
+    /**
+     * Turns a completely installed staging directory into the new top layer.
+     *
+     * @param root
+     *         the image pack directory
+     * @param staging
+     *         the directory returned by {@link #prepareStaging(File)}
+     * @throws IOException
+     *         if the directory cannot be renamed
+     */
+    public static void commit(File root, File staging) throws IOException {
+        List<File> layers = list(root);
+        int next = layers.isEmpty() ? 1 : Integer.parseInt(layers.get(layers.size() - 1).getName()) + 1;
+        File layer = new File(new File(root, DIR_NAME), String.format("%04d", next));
+        if (!staging.renameTo(layer)) {
+            throw new IOException("Unable to move " + staging + " to " + layer);
+        }
+        Log.i(ImagePackLayers.class.getSimpleName(), "Added image pack layer " + layer.getName());
+    }
+
+    /**
+     * Drops the top layer, which reverts the image pack to the state before the last update.
+     *
+     * @param root
+     *         the image pack directory
+     * @return true if a layer has been dropped, false if there is none
+     * @throws IOException
+     *         if the layer cannot be removed
+     */
+    public static boolean dropTop(File root) throws IOException {
+        List<File> layers = list(root);
+        if (layers.isEmpty()) {
+            return false;
+        }
+        File layer = layers.get(layers.size() - 1);
+        // renamed first so the layer disappears at once, deleting its files takes a while
+        File dropped = new File(new File(root, DIR_NAME), DROPPED_NAME);
+        delete(dropped);
+        if (!layer.renameTo(dropped)) {
+            throw new IOException("Unable to drop " + layer);
+        }
+        Log.i(ImagePackLayers.class.getSimpleName(), "Dropped image pack layer " + layer.getName());
+        delete(dropped);
+        return true;
+    }
+
+    /**
+     * Merges the update layers into a single index, preferring a file's WebP variant if one has been created for
+     * the layer.
+     *
+     * @param root
+     *         the image pack directory
+     * @return the file to serve for each path found in any update layer
+     */
+    static Map<String, File> index(File root) {
+        Map<String, File> index = new HashMap<>();
+        List<File> layers = list(root);
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            File layer = layers.get(i);
+            Set<String> variants = WebpTranscoder.readVariants(layer);
+            List<String> paths = new ArrayList<>();
+            listFiles(layer, "", paths);
+            for (String path : paths) {
+                if (index.containsKey(path)) {
+                    continue;
+                }
+                index.put(path, variants.contains(path) ? new File(layer, path + WebpTranscoder.VARIANT_SUFFIX)
+                        : new File(layer, path));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Collects the paths of all files below a directory.
+     *
+     * @param dir
+     *         the directory to list
+     * @param prefix
+     *         the path of the directory relative to the layer
+     * @param paths
+     *         the list to add the relative paths to
+     */
+    private static void listFiles(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                listFiles(file, name + "/", paths);
+            } else {
+                paths.add(name);
+            }
+        }
+    }
+
+    /**
+     * Recursively deletes a file or directory.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
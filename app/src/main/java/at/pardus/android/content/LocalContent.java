@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A piece of local content to serve, backed either by a file or by a byte buffer.
+ */
+final class LocalContent {
+
+    final String mimeType;
+
+    final long length;
+
+    final long lastModified;
+
+    /**
+     * The quoted entity tag to validate cached copies with, null if none.
+     */
+    final String etag;
+
+    /**
+     * True if the content never changes under its URL and caches may skip revalidation.
+     */
+    final boolean immutable;
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private LocalContent(String mimeType, long length, long lastModified, String etag, boolean immutable, File file,
+                         ByteBuffer buffer) {
+        this.mimeType = mimeType;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.immutable = immutable;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param file
+     *         an existing, readable file
+     * @return content served straight from the file
+     */
+    static LocalContent ofFile(File file) {
+        return new LocalContent(MimeTypes.get(file.getName()), file.length(), file.lastModified(), null, false, file,
+                null);
+    }
+
+    /**
+     * @param buffer
+     *         the content's bytes between position and limit (not modified by readers)
+     * @param mimeType
+     *         MIME type of the content
+     * @param lastModified
+     *         modification time in milliseconds since the epoch
+     * @return content served from memory
+     */
+    static LocalContent ofBuffer(ByteBuffer buffer, String mimeType, long lastModified) {
+        return new LocalContent(mimeType, buffer.remaining(), lastModified, null, false, null, buffer);
+    }
+
+    /**
+     * @param etag
+     *         the quoted entity tag
+     * @param lastModified
+     *         modification time in milliseconds since the epoch
+     * @param immutable
+     *         true if the content never changes under its URL
+     * @return the same content with the given cache validators
+     */
+    LocalContent withValidators(String etag, long lastModified, boolean immutable) {
+        return new LocalContent(mimeType, length, lastModified, etag, immutable, file, buffer);
+    }
+
+    /**
+     * @param ifNoneMatch
+     *         the value of an If-None-Match request header, may be null
+     * @return true if the header matches the content's entity tag, i.e. a cached copy is still valid
+     */
+    boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the content is held in memory, false if it is read from a file
+     */
+    boolean isBuffered() {
+        return buffer != null;
+    }
+
+    /**
+     * @return an independent view of the content's bytes, null if file-backed
+     */
+    ByteBuffer getBuffer() {
+        return (buffer == null) ? null : buffer.duplicate();
+    }
+
+    /**
+     * Opens the backing file. The caller has to close the channel.
+     *
+     * @return a channel positioned at the start of the content, null if memory-backed
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    FileChannel openChannel() throws IOException {
+        return (file == null) ? null : new FileInputStream(file).getChannel();
+    }
+
+    /**
+     * Opens a stream of the content. The caller has to close the stream.
+     *
+     * @return a stream positioned at the start of the content
+     * @throws IOException
+     *         if the file cannot be opened
+     */
+    InputStream openStream() throws IOException {
+        return (file == null) ? new ByteBufferInputStream(buffer.duplicate()) : new FileInputStream(file);
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer without copying them beforehand.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+    }
+
+}
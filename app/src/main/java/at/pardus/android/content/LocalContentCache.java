@@ -0,0 +1,235 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded in-memory cache of local content with least-recently-used eviction.
+ *
+ * Concurrent requests for content that is not cached yet share a single load.
+ */
+final class LocalContentCache {
+
+    /**
+     * Loads uncached content.
+     */
+    interface Loader {
+
+        /**
+         * @return the content or null if it does not exist
+         * @throws IOException
+         *         if the content cannot be read
+         */
+        LocalContent load() throws IOException;
+
+    }
+
+    private final long maxBytes;
+
+    private final long maxEntryBytes;
+
+    private long bytes = 0;
+
+    /**
+     * Incremented when the cache is cleared, so loads started before are not added afterwards.
+     */
+    private long generation = 0;
+
+    private final LinkedHashMap<String, LocalContent> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Map<String, FutureTask<LocalContent>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes
+     *         the memory budget of the cache
+     */
+    LocalContentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+    }
+
+    /**
+     * Returns cached content or loads, caches and returns it. Concurrent calls for the same key wait for the
+     * first call's load instead of loading again.
+     *
+     * @param key
+     *         the key of the content
+     * @param loader
+     *         the loader to use if the content is not cached
+     * @return the content (held in memory unless too large to cache) or null if it does not exist
+     * @throws IOException
+     *         if the content cannot be read
+     */
+    LocalContent get(String key, Loader loader) throws IOException {
+        LocalContent content;
+        synchronized (this) {
+            content = entries.get(key);
+        }
+        if (content != null) {
+            hits.incrementAndGet();
+            return content;
+        }
+        FutureTask<LocalContent> task = new FutureTask<>(() -> load(key, loader));
+        FutureTask<LocalContent> running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            misses.incrementAndGet();
+            running = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            // served by another request's disk read
+            hits.incrementAndGet();
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + key);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error loading " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Loads content into memory and adds it to the cache.
+     *
+     * @return the loaded content, null if it does not exist
+     * @throws IOException
+     *         if the content cannot be read
+     */
+    private LocalContent load(String key, Loader loader) throws IOException {
+        long generation;
+        synchronized (this) {
+            generation = this.generation;
+        }
+        LocalContent content = loader.load();
+        if (content == null || content.length > maxEntryBytes) {
+            return content;
+        }
+        if (!content.isBuffered()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) content.length);
+            try (FileChannel channel = content.openChannel()) {
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // read until full or at the end of a file that shrank in the meantime
+                }
+            }
+            buffer.flip();
+            content = LocalContent.ofBuffer(buffer, content.mimeType, content.lastModified);
+        }
+        put(key, content, generation);
+        return content;
+    }
+
+    /**
+     * Adds content to the cache, evicting the least recently used entries if over budget. Content loaded before
+     * the cache has been cleared is not added as it may be outdated.
+     *
+     * @param generation
+     *         the generation of the cache when loading started
+     */
+    private synchronized void put(String key, LocalContent content, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        LocalContent previous = entries.put(key, content);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += content.length;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Evicts least recently used entries until the cache uses at most the given amount of memory.
+     *
+     * @param targetBytes
+     *         the amount of memory to shrink to
+     */
+    synchronized void trimTo(long targetBytes) {
+        Iterator<LocalContent> it = entries.values().iterator();
+        while (bytes > targetBytes && it.hasNext()) {
+            bytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes all entries. Running loads are neither added nor joined by later calls.
+     */
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        generation++;
+        loading.clear();
+    }
+
+    /**
+     * Resets the hit and miss counters, e.g. to measure the hit ratio after prewarming.
+     */
+    void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return the amount of memory used by cached content
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the memory budget of the cache
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return a summary of the cache's size and hit ratio
+     */
+    synchronized String getStats() {
+        long hits = this.hits.get();
+        long misses = this.misses.get();
+        long requests = hits + misses;
+        return entries.size() + " entries, " + (bytes / 1024) + "/" + (maxBytes / 1024) + " KB, " + hits
+                + " hits, " + misses + " misses" + ((requests == 0) ? "" : ", hit ratio "
+                + (hits * 100 / requests) + "%");
+    }
+
+}
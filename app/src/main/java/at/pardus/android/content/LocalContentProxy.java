@@ -17,17 +17,43 @@
 
 package at.pardus.android.content;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.net.Uri;
 import android.util.Log;
+import android.webkit.WebResourceResponse;
 
-import org.nanohttpd.webserver.SimpleWebServer;
-
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import at.pardus.android.browser.BuildConfig;
 
 /**
- * Provides a URI to files served by a local webserver.
+ * Provides a URI to local files, either served by a local webserver or handed to the browser component
+ * directly when it requests them from a virtual origin.
  */
 public class LocalContentProxy {
 
@@ -36,9 +62,77 @@ public class LocalContentProxy {
     private static final String HOST = "localhost";
     private static final int PORT = 42983;
 
-    private SimpleWebServer simpleWebServer;
+    /**
+     * Reserved host name (RFC 2606) that never resolves, used to address files intercepted in-process.
+     */
+    public static final String VIRTUAL_HOST = "imagepack.invalid";
+    private static final String VIRTUAL_ORIGIN = "https://" + VIRTUAL_HOST;
+
+    /**
+     * Name of the zip file within the image pack directory of packs installed without extracting them.
+     */
+    public static final String ARCHIVE_NAME = "img.zip";
+
+    /**
+     * Marks an image pack directory as installed on demand: missing files are fetched from the URL in nfo_src.
+     */
+    public static final String ON_DEMAND_MARKER = ".ondemand";
+
+    /**
+     * Time a parked web server keeps running after the app has been paused.
+     */
+    private static final long RELEASE_DELAY_MILLIS = 60000;
+
+    /**
+     * Maximum time a request waits for the web server to be ready.
+     */
+    private static final long READY_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * Maximum time a request waits for the served directory to be replaced.
+     */
+    private static final long SWAP_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Maximum number of the most used files loaded into memory at startup.
+     */
+    private static final int PREWARM_FILES = 128;
+
+    private final ScheduledExecutorService lifecycle = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LocalContentProxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private LocalWebServer webServer;
+    private ScheduledFuture<?> release;
+    private volatile Future<Boolean> ready = CompletableFuture.completedFuture(false);
+    private volatile AccessStats stats;
+    private volatile boolean prewarmed = false;
+    private volatile LocalContentCache cache;
+    private volatile File root;
+    private volatile boolean intercepting = false;
     private String uri;
 
+    private final Object indexLock = new Object();
+    private volatile boolean indexed = false;
+    private volatile ZipArchive archive;
+    private volatile Set<String> extractedFiles = Collections.emptySet();
+    private volatile Set<String> webpVariants = Collections.emptySet();
+    private volatile Map<String, File> layerFiles = Collections.emptyMap();
+    private volatile ImagePackIndex packIndex;
+    private volatile OriginFetcher fetcher;
+
+    /**
+     * Incremented when the served directory starts and stops being replaced, odd while it is being replaced.
+     */
+    private volatile int swapState = 0;
+    private final Object swapLock = new Object();
+
+    private final Object versionLock = new Object();
+    private volatile boolean versionChecked = false;
+    private volatile String versionTag;
+    private volatile long versionDate;
+
     private LocalContentProxy() {
     }
 
@@ -50,47 +144,654 @@ public class LocalContentProxy {
     }
 
     public String getUri() {
-        return uri;
+        return intercepting ? VIRTUAL_ORIGIN : uri;
+    }
+
+    /**
+     * @param context any context of the application
+     * @return a memory budget for cached files derived from the device's memory class
+     */
+    public static long getDefaultCacheSize(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        return memoryClassBytes / (activityManager.isLowRamDevice() ? 32 : 16);
+    }
+
+    /**
+     * Sets the memory budget for keeping served files in memory. Replaces any previous cache.
+     *
+     * @param maxBytes the maximum amount of memory to use, 0 to read every file from storage
+     */
+    public synchronized void setCacheSize(long maxBytes) {
+        LocalContentCache cache = this.cache;
+        if (cache != null && cache.getMaxBytes() == maxBytes) {
+            return;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.v(getClass().getSimpleName(), "Setting cache size to " + (maxBytes / 1024) + " KB");
+        }
+        this.cache = (maxBytes > 0) ? new LocalContentCache(maxBytes) : null;
+    }
+
+    /**
+     * Sets the file to persist per-file access statistics in, which are used to load the most used files into
+     * memory in the background when starting. Loads previously persisted statistics.
+     *
+     * @param file the file to keep the statistics in
+     */
+    public synchronized void setStatsFile(File file) {
+        AccessStats stats = new AccessStats(file);
+        this.stats = stats;
+        lifecycle.execute(stats::load);
+    }
+
+    /**
+     * Drops all cached files, the file indexes and the image pack version, e.g. after files have been changed on
+     * storage.
+     */
+    public void invalidate() {
+        LocalContentCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+        closeIndex();
+        synchronized (versionLock) {
+            versionChecked = false;
+        }
+        prewarmed = false;
+    }
+
+    /**
+     * Marks the served directory as being replaced by renaming directories. Files not found meanwhile are looked up
+     * again once {@link #endSwap()} has been called instead of being answered as missing.
+     */
+    public void beginSwap() {
+        synchronized (swapLock) {
+            swapState++;
+        }
+    }
+
+    /**
+     * Marks the served directory as replaced, see {@link #beginSwap()}.
+     */
+    public void endSwap() {
+        synchronized (swapLock) {
+            swapState++;
+            swapLock.notifyAll();
+        }
     }
 
     /**
-     * Starts a local web server to serve files.
+     * Waits for the served directory to be in place if it has been replaced since a lookup started.
+     *
+     * @param seenState the swap state when the lookup started
+     * @return true if the lookup should be repeated
+     */
+    private boolean awaitSwap(int seenState) {
+        if (swapState == seenState && seenState % 2 == 0) {
+            return false;
+        }
+        synchronized (swapLock) {
+            long deadline = System.currentTimeMillis() + SWAP_TIMEOUT_MILLIS;
+            long remaining = SWAP_TIMEOUT_MILLIS;
+            while (swapState % 2 != 0 && remaining > 0) {
+                try {
+                    swapLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return swapState % 2 == 0;
+        }
+    }
+
+    /**
+     * Releases cached files according to the system's memory needs. Releases a parked web server right away
+     * once the app is in the background.
+     *
+     * @param level the level passed to ComponentCallbacks2#onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            synchronized (this) {
+                if (release != null) {
+                    if (BuildConfig.DEBUG) {
+                        Log.v(getClass().getSimpleName(), "Releasing parked web server under memory pressure");
+                    }
+                    stop();
+                }
+            }
+        }
+        LocalContentCache cache = this.cache;
+        if (cache == null) {
+            return;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimTo(cache.getMaxBytes() / 2);
+        }
+    }
+
+    /**
+     * Chooses between serving files in-process and through the local web server. The web server is started
+     * or stopped accordingly if a path has been set already.
+     *
+     * @param intercepting true to hand files to the browser component via {@link #intercept(Uri)}, false
+     *                     to run a local web server
+     */
+    public synchronized void setIntercepting(boolean intercepting) {
+        if (this.intercepting == intercepting) {
+            return;
+        }
+        this.intercepting = intercepting;
+        if (intercepting) {
+            stop();
+        } else if (root != null) {
+            start(root.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Starts a local web server to serve files, or keeps a parked one running. Only sets the path when files
+     * are intercepted in-process. Returns immediately, the server is bound in the background.
      *
      * @param path the path to the files to serve
      */
     public synchronized void start(String path) {
-        // start the local image pack webserver
-        if (BuildConfig.DEBUG) {
-            Log.v(getClass().getSimpleName(),
-                    "Starting web server at " + HOST + ":" + PORT + " to serve files from " + path);
+        File root = new File(path);
+        if (!root.equals(this.root)) {
+            this.root = root;
+            invalidate();
         }
-        if (simpleWebServer == null) {
-            simpleWebServer = new SimpleWebServer(HOST, PORT, new File(path), true);
+        cancelRelease();
+        if (!prewarmed) {
+            prewarmed = true;
+            lifecycle.execute(this::prewarm);
         }
-        if (simpleWebServer.isAlive()) {
+        if (intercepting) {
             if (BuildConfig.DEBUG) {
-                Log.v(getClass().getSimpleName(), "Web server is still alive, not restarting");
+                Log.v(getClass().getSimpleName(), "Intercepting requests to " + VIRTUAL_ORIGIN
+                        + " to serve files from " + path);
             }
             return;
         }
+        uri = "http://" + HOST + ":" + PORT;
+        CompletableFuture<Boolean> ready = new CompletableFuture<>();
+        this.ready = ready;
+        lifecycle.execute(() -> ready.complete(startServer(path)));
+    }
+
+    /**
+     * Parks the web server: it keeps running for a grace period so a quick return to the app does not have to
+     * wait for it, and is stopped afterwards unless started again in the meantime.
+     */
+    public synchronized void pause() {
+        if (BuildConfig.DEBUG && cache != null) {
+            Log.v(getClass().getSimpleName(), "Cache: " + cache.getStats());
+        }
+        cancelRelease();
+        AccessStats stats = this.stats;
+        if (stats != null) {
+            lifecycle.execute(stats::save);
+        }
+        if (!intercepting) {
+            release = lifecycle.schedule(this::stopServer, RELEASE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the web server in the background.
+     */
+    public synchronized void stop() {
+        cancelRelease();
+        ready = CompletableFuture.completedFuture(false);
+        lifecycle.execute(this::stopServer);
+    }
+
+    /**
+     * Waits until a web server that is being started accepts connections.
+     *
+     * @return true if the web server is running, false if it failed to start or is not ready in time
+     */
+    public boolean awaitReady() {
         try {
-            simpleWebServer.start();
-            uri = "http://" + HOST + ":" + PORT;
+            return ready.get(READY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Cancels a pending release of a parked web server.
+     */
+    private synchronized void cancelRelease() {
+        if (release != null) {
+            release.cancel(false);
+            release = null;
+        }
+    }
+
+    /**
+     * Binds a new web server unless one is still running. Runs on the lifecycle thread.
+     *
+     * @param path the path to the files to serve
+     * @return true if a web server is running
+     */
+    private boolean startServer(String path) {
+        if (webServer != null && webServer.isAlive()) {
+            if (BuildConfig.DEBUG) {
+                Log.v(getClass().getSimpleName(), "Web server is still alive, not restarting");
+            }
+            return true;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.v(getClass().getSimpleName(),
+                    "Starting web server at " + HOST + ":" + PORT + " to serve files from " + path);
+        }
+        webServer = new LocalWebServer(HOST, PORT, this::resolve);
+        try {
+            webServer.start();
+            return true;
         } catch (IOException e) {
             Log.e(getClass().getSimpleName(), "Error starting web server", e);
-            uri = null;
+            webServer = null;
+            return false;
+        }
+    }
+
+    /**
+     * Loads the most used files into memory, as far as they fit into half of the cache. Runs on the lifecycle
+     * thread.
+     */
+    private void prewarm() {
+        LocalContentCache cache = this.cache;
+        AccessStats stats = this.stats;
+        if (cache == null || stats == null || root == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int loaded = 0;
+        for (String path : stats.getHotSet(PREWARM_FILES)) {
+            if (!isServable(path)) {
+                continue;
+            }
+            if (cache.getBytes() >= cache.getMaxBytes() / 2) {
+                break;
+            }
+            try {
+                if (cache.get(getCacheKey(path), () -> resolveFile(path)) != null) {
+                    loaded++;
+                }
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Error prewarming " + path, e);
+            }
+        }
+        // measure the hit ratio of actual requests from here on
+        cache.resetStats();
+        if (BuildConfig.DEBUG) {
+            Log.v(getClass().getSimpleName(), "Prewarmed " + loaded + " files (" + (cache.getBytes() / 1024)
+                    + " KB) in " + (System.currentTimeMillis() - start) + " ms, hot set: "
+                    + stats.describeHotSet(10));
         }
     }
 
     /**
-     * Stops the web server.
+     * Stops the web server if running. Runs on the lifecycle thread.
      */
-    public void stop() {
-        if (simpleWebServer != null) {
+    private void stopServer() {
+        if (webServer != null) {
             if (BuildConfig.DEBUG) {
                 Log.v(getClass().getSimpleName(), "Stopping web server");
             }
-            simpleWebServer.stop();
+            webServer.stop();
+            webServer = null;
+        }
+    }
+
+    /**
+     * Answers a browser request for a file of the virtual origin. Requests to the local web server are held
+     * back until it is ready. May be called from any thread but the main thread.
+     *
+     * @param url the requested URL
+     * @return the response, or null if the URL does not belong to the virtual origin
+     */
+    public WebResourceResponse intercept(Uri url) {
+        if (!intercepting && HOST.equals(url.getHost()) && url.getPort() == PORT) {
+            awaitReady();
+            return null;
+        }
+        if (!VIRTUAL_HOST.equals(url.getHost()) || root == null) {
+            return null;
+        }
+        String path = url.getPath();
+        Map<String, String> headers = new HashMap<>();
+        LocalContent content;
+        try {
+            content = (path == null) ? null : resolve(path);
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error reading " + path, e);
+            content = null;
+        }
+        if (content == null) {
+            if (BuildConfig.DEBUG) {
+                Log.v(getClass().getSimpleName(), "Not found: " + path);
+            }
+            return new WebResourceResponse("text/plain", null, 404, "Not Found", headers,
+                    new ByteArrayInputStream(new byte[0]));
+        }
+        // intercepted responses never enter the browser's HTTP cache, so validators and immutability would not
+        // take effect and conditional requests never arrive here
+        headers.put("Cache-Control", LocalWebServer.CACHE_CONTROL_DEFAULT);
+        headers.put("Last-Modified", LocalWebServer.formatHttpDate(content.lastModified));
+        try {
+            headers.put("Content-Length", Long.toString(content.length));
+            return new WebResourceResponse(content.mimeType, null, 200, "OK", headers, content.openStream());
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error reading " + path, e);
+            return new WebResourceResponse("text/plain", null, 500, "Internal Server Error", headers,
+                    new ByteArrayInputStream(new byte[0]));
+        }
+    }
+
+    /**
+     * Maps a request path to a file below the served directory, going through the cache if enabled.
+     *
+     * Files are tagged with the image pack version: they only change when an update is installed, so the browser
+     * may keep files served by the local web server without revalidation. Without version information they are
+     * tagged with their own size and modification time.
+     *
+     * @param path the decoded request path
+     * @return the file's content or null if there is no such readable file
+     * @throws IOException if the file cannot be read
+     */
+    private LocalContent resolve(String path) throws IOException {
+        if (!isServable(path)) {
+            return null;
+        }
+        LocalContentCache cache = this.cache;
+        LocalContent content = (cache == null) ? resolveFile(path)
+                : cache.get(getCacheKey(path), () -> resolveFile(path));
+        if (content == null) {
+            return null;
+        }
+        AccessStats stats = this.stats;
+        if (stats != null) {
+            stats.record(path);
+        }
+        checkVersion();
+        String versionTag = this.versionTag;
+        if (versionTag != null) {
+            return content.withValidators(versionTag, versionDate, true);
+        }
+        return content.withValidators("\"" + Long.toHexString(content.lastModified) + "-"
+                + Long.toHexString(content.length) + "\"", content.lastModified, false);
+    }
+
+    /**
+     * Keys cached files by their content if the image pack's index knows it, so files with identical content share
+     * one cached copy. The extension is part of the key as it determines the MIME type.
+     *
+     * @param path the decoded request path
+     * @return the key to cache the file under
+     */
+    private String getCacheKey(String path) {
+        checkIndex();
+        ImagePackIndex packIndex = this.packIndex;
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        long contentId = (packIndex == null) ? 0 : packIndex.contentId(name);
+        if (contentId == 0) {
+            return path;
+        }
+        int dot = path.lastIndexOf('.');
+        return "#" + Long.toHexString(contentId) + ((dot > path.lastIndexOf('/')) ? path.substring(dot) : "");
+    }
+
+    /**
+     * Reads the installed image pack version (yyyymmdd[0-9][0-9]) from nfo_upd on first use.
+     */
+    private void checkVersion() {
+        if (versionChecked) {
+            return;
+        }
+        synchronized (versionLock) {
+            if (versionChecked) {
+                return;
+            }
+            versionTag = null;
+            try {
+                LocalContent info = resolveFile("/nfo_upd");
+                if (info != null && info.length < 64) {
+                    byte[] bytes = new byte[(int) info.length];
+                    try (InputStream in = info.openStream()) {
+                        int read = 0;
+                        int n;
+                        while (read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) != -1) {
+                            read += n;
+                        }
+                    }
+                    String version = new String(bytes, StandardCharsets.US_ASCII).trim();
+                    if (version.matches("\\d{10}")) {
+                        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+                        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+                        // the last two digits count updates released on the same day
+                        versionDate = format.parse(version.substring(0, 8)).getTime()
+                                + Integer.parseInt(version.substring(8)) * 60000L;
+                        versionTag = "\"" + version + "\"";
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                Log.w(getClass().getSimpleName(), "Error reading image pack version", e);
+            }
+            if (BuildConfig.DEBUG) {
+                Log.v(getClass().getSimpleName(), "Image pack version " + versionTag);
+            }
+            versionChecked = true;
+        }
+    }
+
+    /**
+     * Answers requests for files not listed in the image pack's index right away, if it has a complete one.
+     * Looks up a file in the image pack's update layers first, topmost layer first. Otherwise looks it up in the
+     * image pack's archive if the pack has been installed without extracting it, unless the file has been
+     * extracted by an update. Falls back to the file system otherwise, preferring a file's WebP variant if one
+     * has been created at installation.
+     *
+     * @param path the decoded request path
+     * @return the file's content or null if there is no such readable file
+     * @throws IOException if the file cannot be read from the archive
+     */
+    private LocalContent resolveFile(String path) throws IOException {
+        int swapState = this.swapState;
+        checkIndex();
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        ImagePackIndex packIndex = this.packIndex;
+        if (packIndex != null && packIndex.isComplete() && !packIndex.contains(name)) {
+            return null;
+        }
+        File layered = layerFiles.get(name);
+        if (layered != null && layered.isFile() && layered.canRead()) {
+            return LocalContent.ofFile(layered);
+        }
+        ZipArchive archive = this.archive;
+        if (archive != null && !extractedFiles.contains(name)) {
+            return archive.get(name);
+        }
+        if (webpVariants.contains(name)) {
+            File variant = new File(root, name + WebpTranscoder.VARIANT_SUFFIX);
+            if (variant.isFile() && variant.canRead()) {
+                return LocalContent.ofFile(variant);
+            }
+        }
+        File root = this.root;
+        File file = (root == null) ? null : new File(root, path);
+        if (file == null || !isBelow(root, file)) {
+            return null;
+        }
+        if (!file.isFile() || !file.canRead()) {
+            if (awaitSwap(swapState)) {
+                return resolveFile(path);
+            }
+            OriginFetcher fetcher = this.fetcher;
+            if (fetcher == null || (file = fetcher.fetch(name)) == null) {
+                return null;
+            }
+        }
+        return LocalContent.ofFile(file);
+    }
+
+    /**
+     * Rejects paths naming the image pack's bookkeeping files rather than its images: anything with a path segment
+     * starting with a dot (which includes ".."), the archive itself, partially downloaded and temporary files.
+     *
+     * @param path the decoded request path
+     * @return true if the path may be looked up
+     */
+    private static boolean isServable(String path) {
+        if (path.startsWith(".") || path.contains("/.") || path.indexOf('\\') != -1 || path.indexOf('\0') != -1) {
+            return false;
+        }
+        String name = path.startsWith("/") ? path.substring(1) : path;
+        return !name.equals(ARCHIVE_NAME) && !name.endsWith(".part") && !name.endsWith(".journal")
+                && !name.endsWith(".link");
+    }
+
+    /**
+     * @param root the served directory
+     * @param file the file to check
+     * @return true if the file lies below root once symbolic links are resolved
+     * @throws IOException if a path cannot be resolved
+     */
+    private static boolean isBelow(File root, File file) throws IOException {
+        return file.getCanonicalPath().startsWith(root.getCanonicalPath() + File.separator);
+    }
+
+    /**
+     * Loads the image pack's index, opens and indexes the image pack's archive, merges the index of its update
+     * layers, sets up fetching missing files of image packs installed on demand and reads the list of WebP variants
+     * on first use.
+     */
+    private void checkIndex() {
+        if (indexed) {
+            return;
+        }
+        synchronized (indexLock) {
+            if (indexed) {
+                return;
+            }
+            File root = this.root;
+            File file = (root == null) ? null : new File(root, ARCHIVE_NAME);
+            if (file != null && file.isFile()) {
+                try {
+                    archive = new ZipArchive(file);
+                    // files extracted by updates supersede the archive's
+                    Set<String> extractedFiles = new HashSet<>();
+                    listFiles(root, "", extractedFiles);
+                    this.extractedFiles = extractedFiles;
+                    if (BuildConfig.DEBUG) {
+                        Log.v(getClass().getSimpleName(), "Indexed " + archive.size() + " archived and "
+                                + extractedFiles.size() + " extracted files");
+                    }
+                } catch (IOException e) {
+                    Log.e(getClass().getSimpleName(), "Error opening " + file, e);
+                }
+            }
+            if (root != null && new File(root, ON_DEMAND_MARKER).isFile()) {
+                String srcUrl = readSrcUrl(root);
+                if (srcUrl != null) {
+                    fetcher = new OriginFetcher(srcUrl, root);
+                    if (BuildConfig.DEBUG) {
+                        Log.v(getClass().getSimpleName(), "Fetching missing files from " + srcUrl);
+                    }
+                }
+            }
+            if (root != null) {
+                packIndex = ImagePackIndex.get(root);
+                if (BuildConfig.DEBUG && packIndex != null) {
+                    Log.v(getClass().getSimpleName(), "Loaded index of " + packIndex.size() + " files");
+                }
+                layerFiles = ImagePackLayers.index(root);
+                if (BuildConfig.DEBUG && !layerFiles.isEmpty()) {
+                    Log.v(getClass().getSimpleName(), "Indexed " + layerFiles.size() + " files in "
+                            + ImagePackLayers.list(root).size() + " update layers");
+                }
+                webpVariants = WebpTranscoder.readVariants(root);
+                if (BuildConfig.DEBUG && !webpVariants.isEmpty()) {
+                    Log.v(getClass().getSimpleName(), "Serving " + webpVariants.size() + " WebP variants");
+                }
+            }
+            indexed = true;
+        }
+    }
+
+    /**
+     * @param root the image pack directory
+     * @return the URL the image pack is hosted at or null if unknown or not a Pardus server
+     */
+    private static String readSrcUrl(File root) {
+        try (BufferedReader in = new BufferedReader(new FileReader(new File(root, "nfo_src")))) {
+            String srcUrl = in.readLine();
+            if (srcUrl != null && srcUrl.trim().matches("https?://static\\.pardus\\.at/[\\w/]+")) {
+                return srcUrl.trim();
+            }
+        } catch (IOException e) {
+            Log.w(LocalContentProxy.class.getSimpleName(), "Error reading nfo_src", e);
+        }
+        return null;
+    }
+
+    /**
+     * Closes the archive, stops fetching missing files and forgets the index, update layers and WebP variants, all
+     * are set up again on next use.
+     */
+    private void closeIndex() {
+        synchronized (indexLock) {
+            if (archive != null) {
+                try {
+                    archive.close();
+                } catch (IOException ignored) {
+                }
+            }
+            archive = null;
+            if (fetcher != null) {
+                fetcher.shutdown();
+            }
+            fetcher = null;
+            extractedFiles = Collections.emptySet();
+            layerFiles = Collections.emptyMap();
+            packIndex = null;
+            webpVariants = Collections.emptySet();
+            indexed = false;
+        }
+    }
+
+    /**
+     * Collects the paths of all files below a directory except the archive itself and the update layers.
+     *
+     * @param dir    the directory to list
+     * @param prefix the path of the directory relative to the image pack directory
+     * @param paths  the set to add the relative paths to
+     */
+    private static void listFiles(File dir, String prefix, Set<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                if (!name.equals(ImagePackLayers.DIR_NAME)) {
+                    listFiles(file, name + "/", paths);
+                }
+            } else if (!name.equals(ARCHIVE_NAME) && !name.equals(".nomedia")) {
+                paths.add(name);
+            }
         }
     }
 
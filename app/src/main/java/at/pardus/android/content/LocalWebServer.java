@@ -0,0 +1,708 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import at.pardus.android.browser.BuildConfig;
+
+/**
+ * Minimal HTTP/1.1 server for local content.
+ *
+ * A single selector thread accepts connections, parses requests and writes responses without blocking. Files
+ * are sent with FileChannel#transferTo, in-memory content straight from its buffer. Resolving a request to
+ * content (which may touch the file system) is done by a small bounded pool of workers. Connections are kept
+ * alive and pipelined requests are answered in order.
+ */
+final class LocalWebServer {
+
+    /**
+     * Maps request paths to content.
+     */
+    interface Resolver {
+
+        /**
+         * Called on a worker thread.
+         *
+         * @param path
+         *         the decoded request path, starting with /
+         * @return the content to serve or null if not found
+         * @throws IOException
+         *         if the content cannot be read
+         */
+        LocalContent resolve(String path) throws IOException;
+
+    }
+
+    private static final int READ_BUFFER_SIZE = 2048;
+
+    private static final int MAX_REQUEST_HEADER_SIZE = 16384;
+
+    private static final int WORKER_QUEUE_SIZE = 128;
+
+    private static final long SELECT_TIMEOUT_MILLIS = 5000;
+
+    private static final long IDLE_TIMEOUT_MILLIS = 30000;
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    /**
+     * Cache-Control value for content that never changes under its URL.
+     */
+    static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * Cache-Control value for content that may change and has to be revalidated eventually.
+     */
+    static final String CACHE_CONTROL_DEFAULT = "public, max-age=86400";
+
+    private final String host;
+
+    private final int port;
+
+    private final Resolver resolver;
+
+    private final Queue<Connection> responded = new ConcurrentLinkedQueue<>();
+
+    private ThreadPoolExecutor workers;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread thread;
+
+    private volatile boolean running = false;
+
+    /**
+     * State of a single client connection. Owned by the selector thread except while a worker resolves its
+     * current request.
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        private long lastActivity = System.currentTimeMillis();
+
+        private boolean busy = false;
+
+        private boolean keepAlive;
+
+        private ByteBuffer header;
+
+        private FileChannel body;
+
+        private ByteBuffer bodyBuffer;
+
+        private long bodyPosition;
+
+        private long bodyEnd;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Releases resources of the current response.
+         */
+        private void closeBody() {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException ignored) {
+                }
+                body = null;
+            }
+            bodyBuffer = null;
+            header = null;
+        }
+
+    }
+
+    /**
+     * A parsed request line and the headers relevant to this server.
+     */
+    private static final class Request {
+
+        private String method;
+
+        private String path;
+
+        private boolean keepAlive;
+
+        private String ifNoneMatch;
+
+    }
+
+    /**
+     * @param host
+     *         the host name or address to bind to
+     * @param port
+     *         the port to listen at
+     * @param resolver
+     *         the mapping of request paths to content
+     */
+    LocalWebServer(String host, int port, Resolver resolver) {
+        this.host = host;
+        this.port = port;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Binds the server socket and starts the selector thread. A server can only be started once.
+     *
+     * @throws IOException
+     *         if the socket cannot be bound
+     */
+    synchronized void start() throws IOException {
+        if (selector != null) {
+            throw new IllegalStateException("Web server has already been started");
+        }
+        selector = Selector.open();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(host, port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+        int numWorkers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        workers = new ThreadPoolExecutor(numWorkers, numWorkers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE), r -> new Thread(r, "LocalWebServerWorker"));
+        workers.allowCoreThreadTimeOut(true);
+        running = true;
+        thread = new Thread(this::run, "LocalWebServer");
+        thread.start();
+    }
+
+    /**
+     * Stops accepting requests, closes all connections and releases the port.
+     */
+    synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return true if the server is accepting connections
+     */
+    boolean isAlive() {
+        Thread thread = this.thread;
+        return running && thread != null && thread.isAlive();
+    }
+
+    /**
+     * Selector loop.
+     */
+    private void run() {
+        long lastIdleCheck = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Connection connection;
+                while ((connection = responded.poll()) != null) {
+                    startWriting(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        } else if (key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= SELECT_TIMEOUT_MILLIS) {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Log.e(getClass().getSimpleName(), "Web server stopped unexpectedly", e);
+        } finally {
+            running = false;
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Accepts all pending connections.
+     *
+     * @throws IOException
+     *         if the server socket fails
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(channel, key));
+            } catch (IOException e) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads available request data and dispatches complete requests.
+     *
+     * @param connection
+     *         the connection to read from
+     * @throws IOException
+     *         if the connection fails
+     */
+    private void read(Connection connection) throws IOException {
+        if (!connection.in.hasRemaining()) {
+            if (connection.in.capacity() >= MAX_REQUEST_HEADER_SIZE) {
+                respondError(connection, 431, "Request Header Fields Too Large");
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(connection.in.capacity() * 2);
+            connection.in.flip();
+            larger.put(connection.in);
+            connection.in = larger;
+        }
+        int bytesRead = connection.channel.read(connection.in);
+        if (bytesRead == -1) {
+            close(connection);
+            return;
+        }
+        connection.lastActivity = System.currentTimeMillis();
+        dispatch(connection);
+    }
+
+    /**
+     * Hands the next buffered request of a connection to a worker, if it has been received completely.
+     *
+     * @param connection
+     *         the connection to check
+     */
+    private void dispatch(Connection connection) {
+        int end = indexOfHeaderEnd(connection.in);
+        if (end == -1) {
+            return;
+        }
+        String head = new String(connection.in.array(), 0, end, StandardCharsets.ISO_8859_1);
+        // keep any pipelined data following this request's header
+        connection.in.flip();
+        connection.in.position(end + HEADER_END.length);
+        connection.in.compact();
+        Request request = parseRequest(head);
+        if (request == null) {
+            respondError(connection, 400, "Bad Request");
+            return;
+        }
+        connection.keepAlive = request.keepAlive;
+        boolean headOnly = request.method.equals("HEAD");
+        if (!headOnly && !request.method.equals("GET")) {
+            // request bodies are not read, so the connection cannot be reused
+            respondError(connection, 405, "Method Not Allowed");
+            return;
+        }
+        connection.busy = true;
+        connection.key.interestOps(0);
+        try {
+            workers.execute(() -> {
+                resolve(connection, request.path, request.ifNoneMatch, headOnly);
+                responded.add(connection);
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            connection.busy = false;
+            respondError(connection, 503, "Service Unavailable");
+        }
+    }
+
+    /**
+     * Resolves a request path and prepares the response. Runs on a worker thread.
+     *
+     * @param connection
+     *         the connection to prepare the response for
+     * @param path
+     *         the decoded request path
+     * @param ifNoneMatch
+     *         the entity tags of cached copies the client holds, may be null
+     * @param head
+     *         true if only the header should be sent
+     */
+    private void resolve(Connection connection, String path, String ifNoneMatch, boolean head) {
+        LocalContent content = null;
+        if (path != null) {
+            try {
+                content = resolver.resolve(path);
+            } catch (Exception e) {
+                Log.w(getClass().getSimpleName(), "Error resolving " + path, e);
+                connection.header = buildHeader(500, "Internal Server Error", null, connection.keepAlive);
+                return;
+            }
+        }
+        if (content == null) {
+            if (BuildConfig.DEBUG) {
+                Log.v(getClass().getSimpleName(), "Not found: " + path);
+            }
+            connection.header = buildHeader(404, "Not Found", null, connection.keepAlive);
+            return;
+        }
+        if (content.matches(ifNoneMatch)) {
+            connection.header = buildHeader(304, "Not Modified", content, connection.keepAlive);
+            return;
+        }
+        if (!head) {
+            if (content.isBuffered()) {
+                connection.bodyBuffer = content.getBuffer();
+            } else {
+                try {
+                    connection.body = content.openChannel();
+                } catch (IOException e) {
+                    connection.header = buildHeader(404, "Not Found", null, connection.keepAlive);
+                    return;
+                }
+                connection.bodyPosition = 0;
+                connection.bodyEnd = content.length;
+            }
+        }
+        connection.header = buildHeader(200, "OK", content, connection.keepAlive);
+    }
+
+    /**
+     * Sends an error response from the selector thread and closes the connection afterwards.
+     *
+     * @param connection
+     *         the connection to respond to
+     * @param status
+     *         HTTP status code
+     * @param reason
+     *         HTTP reason phrase
+     */
+    private void respondError(Connection connection, int status, String reason) {
+        connection.keepAlive = false;
+        connection.header = buildHeader(status, reason, null, false);
+        startWriting(connection);
+    }
+
+    /**
+     * Switches a connection with a prepared response to writing.
+     *
+     * @param connection
+     *         the connection to write to
+     */
+    private void startWriting(Connection connection) {
+        connection.busy = false;
+        if (!connection.key.isValid()) {
+            close(connection);
+            return;
+        }
+        try {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            write(connection);
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Writes as much of the current response as the socket accepts.
+     *
+     * @param connection
+     *         the connection to write to
+     * @throws IOException
+     *         if the connection or file fails
+     */
+    private void write(Connection connection) throws IOException {
+        connection.lastActivity = System.currentTimeMillis();
+        if (connection.header.hasRemaining()) {
+            connection.channel.write(connection.header);
+            if (connection.header.hasRemaining()) {
+                return;
+            }
+        }
+        if (connection.body != null) {
+            while (connection.bodyPosition < connection.bodyEnd) {
+                long sent = connection.body.transferTo(connection.bodyPosition,
+                        connection.bodyEnd - connection.bodyPosition, connection.channel);
+                if (sent <= 0) {
+                    return;
+                }
+                connection.bodyPosition += sent;
+            }
+        } else if (connection.bodyBuffer != null) {
+            connection.channel.write(connection.bodyBuffer);
+            if (connection.bodyBuffer.hasRemaining()) {
+                return;
+            }
+        }
+        connection.closeBody();
+        if (!connection.keepAlive) {
+            close(connection);
+            return;
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+        dispatch(connection);
+    }
+
+    /**
+     * Closes connections that have been waiting for a request for too long.
+     *
+     * @param now
+     *         the current time in milliseconds
+     */
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                Connection connection = (Connection) attachment;
+                if (!connection.busy && now - connection.lastActivity > IDLE_TIMEOUT_MILLIS) {
+                    close(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes a connection and its current response.
+     *
+     * @param connection
+     *         the connection to close
+     */
+    private static void close(Connection connection) {
+        connection.closeBody();
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Closes all connections, the server socket and the selector.
+     */
+    private void closeQuietly() {
+        if (selector != null) {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    }
+                }
+            } catch (ClosedSelectorException ignored) {
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @param buffer
+     *         buffer in write mode
+     * @return the offset of the blank line ending the first request header, -1 if not yet received
+     */
+    private static int indexOfHeaderEnd(ByteBuffer buffer) {
+        byte[] data = buffer.array();
+        int limit = buffer.position() - HEADER_END.length;
+        for (int i = 0; i <= limit; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param head
+     *         request line and headers
+     * @return the parsed request or null if malformed; the path is null if it does not denote a servable file
+     */
+    private static Request parseRequest(String head) {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            return null;
+        }
+        Request request = new Request();
+        request.method = requestLine[0];
+        request.path = decodePath(requestLine[1]);
+        request.keepAlive = requestLine[2].equals("HTTP/1.1");
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            if (name.equalsIgnoreCase("If-None-Match")) {
+                request.ifNoneMatch = lines[i].substring(colon + 1).trim();
+            } else if (name.equalsIgnoreCase("Connection")) {
+                String value = lines[i].substring(colon + 1).trim().toLowerCase(Locale.ENGLISH);
+                if (value.contains("close")) {
+                    request.keepAlive = false;
+                } else if (value.contains("keep-alive")) {
+                    request.keepAlive = true;
+                }
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @param target
+     *         the raw request target
+     * @return the percent-decoded path without query, null if malformed
+     */
+    private static String decodePath(String target) {
+        int end = target.length();
+        int query = target.indexOf('?');
+        if (query != -1) {
+            end = query;
+        }
+        int fragment = target.indexOf('#');
+        if (fragment != -1 && fragment < end) {
+            end = fragment;
+        }
+        if (end == 0 || target.charAt(0) != '/') {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end);
+        for (int i = 0; i < end; i++) {
+            char c = target.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= end) {
+                    return null;
+                }
+                int hi = Character.digit(target.charAt(i + 1), 16);
+                int lo = Character.digit(target.charAt(i + 2), 16);
+                if (hi == -1 || lo == -1) {
+                    return null;
+                }
+                bytes.write((hi << 4) | lo);
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        String path = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return (path.indexOf('\0') == -1) ? path : null;
+    }
+
+    /**
+     * @param status
+     *         HTTP status code
+     * @param reason
+     *         HTTP reason phrase
+     * @param content
+     *         the content the response refers to, null for errors
+     * @param keepAlive
+     *         true if the connection stays open afterwards
+     * @return an HTTP response header
+     */
+    private static ByteBuffer buildHeader(int status, String reason, LocalContent content, boolean keepAlive) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        if (content != null) {
+            if (status != 304) {
+                sb.append("Content-Type: ").append(content.mimeType).append("\r\n");
+                sb.append("Content-Length: ").append(content.length).append("\r\n");
+            }
+            sb.append("Cache-Control: ").append(content.immutable ? CACHE_CONTROL_IMMUTABLE : CACHE_CONTROL_DEFAULT)
+                    .append("\r\n");
+            if (content.etag != null) {
+                sb.append("ETag: ").append(content.etag).append("\r\n");
+            }
+            sb.append("Last-Modified: ").append(formatHttpDate(content.lastModified)).append("\r\n");
+        } else {
+            sb.append("Content-Length: 0\r\n");
+        }
+        sb.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        sb.append("\r\n");
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param millis
+     *         milliseconds since the epoch
+     * @return the date in the format used by HTTP headers
+     */
+    static String formatHttpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+}
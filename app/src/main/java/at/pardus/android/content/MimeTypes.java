@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Precomputed table of MIME types for the file types found in image packs.
+ */
+final class MimeTypes {
+
+    static final String DEFAULT = "application/octet-stream";
+
+    private static final Map<String, String> TYPES;
+
+    static {
+        TYPES = new HashMap<>();
+        TYPES.put("png", "image/png");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("bmp", "image/bmp");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("css", "text/css");
+        TYPES.put("js", "application/javascript");
+        TYPES.put("htm", "text/html");
+        TYPES.put("html", "text/html");
+        TYPES.put("txt", "text/plain");
+        TYPES.put("xml", "text/xml");
+        TYPES.put("json", "application/json");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * @param name
+     *         a file name or path
+     * @return the MIME type matching the name's extension, DEFAULT if unknown
+     */
+    static String get(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot == -1 || dot < name.lastIndexOf('/')) {
+            return DEFAULT;
+        }
+        String type = TYPES.get(name.substring(dot + 1));
+        if (type == null) {
+            type = TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+        }
+        return (type == null) ? DEFAULT : type;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import at.pardus.android.browser.BuildConfig;
+
+/**
+ * Fetches files missing from an image pack installed on demand from the image pack's origin and stores them in
+ * the image pack directory. Fetches run on a small pool; concurrent requests for the same file share one fetch.
+ */
+final class OriginFetcher {
+
+    private static final int THREADS = 4;
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final int READ_TIMEOUT = 15000;
+
+    /**
+     * Maximum time a request waits for its file, including time queued behind other fetches.
+     */
+    private static final long WAIT_MILLIS = 30000;
+
+    /**
+     * Maximum number of files remembered as missing at the origin.
+     */
+    private static final int MAX_MISSING = 1024;
+
+    private final String srcUrl;
+
+    private final File root;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "OriginFetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<String, Future<File>> pending = new ConcurrentHashMap<>();
+
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * @param srcUrl
+     *         the URL the image pack is hosted at
+     * @param root
+     *         the image pack directory
+     */
+    OriginFetcher(String srcUrl, File root) {
+        this.srcUrl = srcUrl;
+        this.root = root;
+    }
+
+    /**
+     * Fetches a file unless it is already being fetched and waits for it.
+     *
+     * @param name
+     *         the path of the file relative to the image pack directory
+     * @return the stored file or null if the origin does not have it
+     * @throws IOException
+     *         if fetching fails or takes too long
+     */
+    File fetch(String name) throws IOException {
+        if (missing.contains(name)) {
+            return null;
+        }
+        FutureTask<File> task = new FutureTask<>(() -> download(name));
+        Future<File> future = pending.putIfAbsent(name, task);
+        if (future == null) {
+            future = task;
+            try {
+                pool.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.remove(name, task);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pending.remove(name, task);
+                throw new IOException("Fetcher shut down");
+            }
+        }
+        try {
+            return future.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out fetching " + name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fetching " + name);
+        }
+    }
+
+    /**
+     * Stops fetching. Waiting requests fail.
+     */
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Downloads a file into the image pack directory. Runs on the pool.
+     *
+     * @return the stored file or null if the origin does not have it
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private File download(String name) throws IOException {
+        File target = new File(root, name);
+        if (target.isFile()) {
+            // fetched by an earlier request in the meantime
+            return target;
+        }
+        HttpURLConnection con = (HttpURLConnection) new URL(srcUrl + "/" + name).openConnection();
+        con.setRequestMethod("GET");
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        try {
+            int status = con.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_FORBIDDEN) {
+                if (missing.size() < MAX_MISSING) {
+                    missing.add(name);
+                }
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + status + " for " + name);
+            }
+            File dir = target.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            File part = new File(root, name + ".part");
+            try (InputStream in = con.getInputStream(); OutputStream out = new FileOutputStream(part)) {
+                byte[] buffer = new byte[16384];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                }
+            } catch (IOException e) {
+                part.delete();
+                throw e;
+            }
+            if (!part.renameTo(target)) {
+                part.delete();
+                throw new IOException("Unable to store " + target);
+            }
+            if (BuildConfig.DEBUG) {
+                Log.v(getClass().getSimpleName(), "Fetched " + name + " (" + target.length() + " bytes)");
+            }
+            return target;
+        } finally {
+            con.disconnect();
+        }
+    }
+
+}
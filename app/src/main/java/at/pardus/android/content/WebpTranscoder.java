@@ -0,0 +1,294 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.pardus.android.browser.BuildConfig;
+
+/**
+ * Re-encodes the PNG files of an extracted image pack to lossless WebP, optionally downscaling tiles to the size
+ * they are displayed at. Variants are stored next to their originals and only kept if smaller. The proxy serves
+ * them in place of the originals. Only used from Android 10 on, older versions cannot encode lossless WebP.
+ */
+public final class WebpTranscoder {
+
+    /**
+     * Size of the image pack's tiles in pixels, matching the game's resolution_tiles setting.
+     */
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Appended to the path of an original to get the path of its variant.
+     */
+    static final String VARIANT_SUFFIX = ".webp";
+
+    /**
+     * File within the image pack directory listing the originals that have a variant, one path per line.
+     */
+    static final String VARIANTS_LIST = ".webp_variants";
+
+    private static final int MAX_PIXELS = 512 * 512;
+
+    /**
+     * Android 10, the first version to encode WebP losslessly at quality 100. Older versions only encode lossy
+     * WebP.
+     */
+    private static final int LOSSLESS_SDK = 29;
+
+    /**
+     * Receives progress updates. Called from worker threads.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param processed
+         *         the number of files processed so far
+         * @param total
+         *         the number of files to process
+         */
+        void onProgress(int processed, int total);
+
+    }
+
+    private final File root;
+
+    private final int tileSize;
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @param tileSize
+     *         the size to downscale tiles to, TILE_SIZE or larger to keep their size
+     */
+    public WebpTranscoder(File root, int tileSize) {
+        this.root = root;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Transcodes PNG files in parallel on all cores and blocks until done. Existing variants of the files are
+     * replaced.
+     *
+     * @param paths
+     *         the paths of the files relative to the image pack directory, other types than PNG are skipped
+     * @param listener
+     *         the listener to report progress to, may be null
+     * @return the number of variants created
+     * @throws IOException
+     *         if the list of variants cannot be written
+     */
+    public int transcode(Collection<String> paths, ProgressListener listener) throws IOException {
+        Set<String> variants = readVariants(root);
+        variants.removeAll(paths);
+        List<String> pngs = new ArrayList<>();
+        for (String path : paths) {
+            if (path.endsWith(".png")) {
+                pngs.add(path);
+            }
+        }
+        Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        AtomicInteger processed = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        for (String path : pngs) {
+            workers.execute(() -> {
+                if (transcodeFile(path)) {
+                    created.add(path);
+                }
+                int n = processed.incrementAndGet();
+                if (listener != null) {
+                    listener.onProgress(n, pngs.size());
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        variants.addAll(created);
+        writeVariants(root, variants);
+        if (BuildConfig.DEBUG) {
+            Log.v(getClass().getSimpleName(), "Created " + created.size() + " WebP variants of " + pngs.size()
+                    + " PNG files");
+        }
+        return created.size();
+    }
+
+    /**
+     * Deletes the variants of files that have been replaced, e.g. by an update.
+     *
+     * @param root
+     *         the image pack directory
+     * @param paths
+     *         the paths of the replaced files relative to the image pack directory
+     * @throws IOException
+     *         if the list of variants cannot be written
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static void dropVariants(File root, Collection<String> paths) throws IOException {
+        Set<String> variants = readVariants(root);
+        boolean changed = false;
+        for (String path : paths) {
+            if (variants.remove(path)) {
+                new File(root, path + VARIANT_SUFFIX).delete();
+                changed = true;
+            }
+        }
+        if (changed) {
+            writeVariants(root, variants);
+        }
+    }
+
+    /**
+     * Encodes a single file, keeping the variant only if smaller than the original.
+     *
+     * @param path
+     *         the path of the file relative to the image pack directory
+     * @return true if a variant has been created
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private boolean transcodeFile(String path) {
+        File source = new File(root, path);
+        File variant = new File(root, path + VARIANT_SUFFIX);
+        variant.delete();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0
+                || (long) options.outWidth * options.outHeight > MAX_PIXELS) {
+            // undecodable or large enough to risk running out of memory with several workers
+            return false;
+        }
+        options.inJustDecodeBounds = false;
+        options.inScaled = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if (bitmap == null) {
+            return false;
+        }
+        try {
+            if (tileSize < TILE_SIZE && bitmap.getWidth() == TILE_SIZE && bitmap.getHeight() == TILE_SIZE) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, tileSize, tileSize, true);
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) source.length());
+            if (!compress(bitmap, out) || out.size() >= source.length()) {
+                return false;
+            }
+            try (OutputStream fos = new FileOutputStream(variant)) {
+                out.writeTo(fos);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Error writing " + variant, e);
+            variant.delete();
+            return false;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @return true if the platform encodes lossless WebP, which it does from Android 10 on
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= LOSSLESS_SDK;
+    }
+
+    /**
+     * Encodes a bitmap as lossless WebP, see {@link #isSupported()}.
+     */
+    private static boolean compress(Bitmap bitmap, OutputStream out) {
+        // quality 100 selects lossless encoding from Android 10 on
+        return bitmap.compress(Bitmap.CompressFormat.WEBP, 100, out);
+    }
+
+    /**
+     * @param root
+     *         the image pack directory
+     * @return the paths of the originals that have a variant, empty if none
+     */
+    static Set<String> readVariants(File root) {
+        Set<String> variants = new HashSet<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(new File(root, VARIANTS_LIST)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    variants.add(line);
+                }
+            }
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            Log.w(WebpTranscoder.class.getSimpleName(), "Error reading list of WebP variants", e);
+        }
+        return variants;
+    }
+
+    /**
+     * Replaces the list of variants.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void writeVariants(File root, Set<String> variants) throws IOException {
+        File list = new File(root, VARIANTS_LIST);
+        if (variants.isEmpty()) {
+            list.delete();
+            return;
+        }
+        File temp = new File(root, VARIANTS_LIST + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (String variant : variants) {
+                out.write(variant);
+                out.write('\n');
+            }
+        }
+        if (!temp.renameTo(list)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + list);
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.content;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only access to the files of a zip archive without extracting it.
+ *
+ * The central directory is indexed once when opening the archive. Stored entries are served as slices of the
+ * memory-mapped archive, deflated entries are inflated on demand and kept in a small cache.
+ */
+final class ZipArchive implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_SIZE = 22;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int METHOD_STORED = 0;
+
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final long INFLATED_CACHE_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Location of an entry's data within the archive.
+     */
+    private static final class Entry {
+
+        private final int method;
+
+        private final long compressedSize;
+
+        private final long size;
+
+        private final long localHeaderOffset;
+
+        private volatile long dataOffset = -1;
+
+        private Entry(int method, long compressedSize, long size, long localHeaderOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+    }
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer mapped;
+
+    private final long lastModified;
+
+    private final Map<String, Entry> entries;
+
+    private final LocalContentCache inflatedCache = new LocalContentCache(INFLATED_CACHE_BYTES);
+
+    /**
+     * Opens and indexes an archive.
+     *
+     * @param file
+     *         the zip file
+     * @throws IOException
+     *         if the file cannot be read or is not a valid zip file
+     */
+    ZipArchive(File file) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        try {
+            ByteBuffer map;
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                // a single mapping is limited to 2 GB: use positional reads
+                Log.w(getClass().getSimpleName(), file + " is too large to map, reading entries into memory");
+                map = null;
+            } else {
+                try {
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } catch (IOException e) {
+                    // address space may be too fragmented to map the whole archive: fall back to positional reads
+                    Log.w(getClass().getSimpleName(), "Could not map " + file + ", reading entries into memory", e);
+                    map = null;
+                }
+            }
+            mapped = map;
+            lastModified = file.lastModified();
+            entries = readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param name
+     *         the name of an entry without leading slash
+     * @return true if the archive contains a file entry of that name
+     */
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return the number of file entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param name
+     *         the name of an entry without leading slash
+     * @return the entry's content or null if there is no such file entry
+     * @throws IOException
+     *         if the entry cannot be read
+     */
+    LocalContent get(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.method == METHOD_STORED) {
+            return LocalContent.ofBuffer(read(entry, entry.size), MimeTypes.get(name), lastModified);
+        }
+        return inflatedCache.get(name, () -> LocalContent.ofBuffer(inflate(entry), MimeTypes.get(name),
+                lastModified));
+    }
+
+    /**
+     * Releases the mapping's file handle. Buffers already handed out remain valid.
+     */
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Reads the raw data of an entry.
+     *
+     * @param entry
+     *         the entry to read
+     * @param length
+     *         the amount of bytes to read
+     * @return a slice of the mapped archive or a buffer holding a copy of the data
+     */
+    private ByteBuffer read(Entry entry, long length) throws IOException {
+        long offset = getDataOffset(entry);
+        if (offset + length > channel.size()) {
+            throw new ZipException("Entry exceeds archive " + file);
+        }
+        if (mapped != null) {
+            ByteBuffer slice = mapped.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) (offset + length));
+            return slice.slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                throw new ZipException("Unexpected end of archive " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the inflated data of a deflated entry
+     */
+    private ByteBuffer inflate(Entry entry) throws IOException {
+        if (entry.method != METHOD_DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " in " + file);
+        }
+        ByteBuffer compressed = read(entry, entry.compressedSize);
+        byte[] input;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+        } else {
+            input = new byte[compressed.remaining()];
+            compressed.get(input);
+        }
+        byte[] output = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input, 0, (int) entry.compressedSize);
+            int inflated = 0;
+            while (inflated < output.length && !inflater.finished()) {
+                int n = inflater.inflate(output, inflated, output.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != output.length) {
+                throw new ZipException("Truncated entry in " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry in " + file + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(output);
+    }
+
+    /**
+     * @return the offset of an entry's data, determined from its local header on first access
+     */
+    private long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset == -1) {
+            ByteBuffer header = readAt(entry.localHeaderOffset, 30);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header in " + file);
+            }
+            int nameLength = header.getShort(26) & 0xffff;
+            int extraLength = header.getShort(28) & 0xffff;
+            dataOffset = entry.localHeaderOffset + 30 + nameLength + extraLength;
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    /**
+     * Parses the end of central directory record(s) and indexes all file entries.
+     *
+     * @return the file entries by name
+     */
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_SIZE) {
+            throw new ZipException("Not a zip file: " + file);
+        }
+        // the end record is followed by a comment of up to 64 KB
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        long tailOffset = fileSize - tailSize;
+        ByteBuffer tail = readAt(tailOffset, tailSize);
+        int endPos = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos == -1) {
+            throw new ZipException("End of central directory not found in " + file);
+        }
+        long count = tail.getShort(endPos + 10) & 0xffff;
+        long cdSize = tail.getInt(endPos + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(endPos + 16) & 0xffffffffL;
+        if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            // zip64: the locator directly precedes the end record
+            ByteBuffer locator = readAt(tailOffset + endPos - 20, 20);
+            if (locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new ZipException("Zip64 end of central directory locator not found in " + file);
+            }
+            ByteBuffer end64 = readAt(locator.getLong(8), 56);
+            if (end64.getInt(0) != ZIP64_END_SIGNATURE) {
+                throw new ZipException("Zip64 end of central directory not found in " + file);
+            }
+            count = end64.getLong(32);
+            cdSize = end64.getLong(40);
+            cdOffset = end64.getLong(48);
+        }
+        if (cdOffset + cdSize > fileSize || cdSize > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory in " + file);
+        }
+        ByteBuffer cd = readAt(cdOffset, (int) cdSize);
+        Map<String, Entry> entries = new HashMap<>((int) Math.min(count * 4 / 3 + 1, 1 << 20));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + 46 > cd.limit() || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry in " + file);
+            }
+            int method = cd.getShort(pos + 10) & 0xffff;
+            long compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            long size = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            if (pos + 46 + nameLength + extraLength > cd.limit()) {
+                throw new ZipException("Invalid central directory entry in " + file);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            cd.position(pos + 46);
+            cd.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                // zip64 extended information in the extra field, in this order, only for maxed out values
+                int extraPos = pos + 46 + nameLength;
+                int extraEnd = extraPos + extraLength;
+                while (extraPos + 4 <= extraEnd) {
+                    int headerId = cd.getShort(extraPos) & 0xffff;
+                    int dataSize = cd.getShort(extraPos + 2) & 0xffff;
+                    if (headerId == 0x0001) {
+                        int valuePos = extraPos + 4;
+                        if (size == 0xffffffffL) {
+                            size = cd.getLong(valuePos);
+                            valuePos += 8;
+                        }
+                        if (compressedSize == 0xffffffffL) {
+                            compressedSize = cd.getLong(valuePos);
+                            valuePos += 8;
+                        }
+                        if (localHeaderOffset == 0xffffffffL) {
+                            localHeaderOffset = cd.getLong(valuePos);
+                        }
+                        break;
+                    }
+                    extraPos += 4 + dataSize;
+                }
+            }
+            if (!name.endsWith("/") && size <= Integer.MAX_VALUE) {
+                entries.put(name, new Entry(method, compressedSize, size, localHeaderOffset));
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * @return a little-endian buffer holding the bytes at the given offset
+     */
+    private ByteBuffer readAt(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                throw new ZipException("Unexpected end of archive " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
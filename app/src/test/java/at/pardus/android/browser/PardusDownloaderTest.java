@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloads from a local server whose first response stalls halfway through the body until the read times out.
+ */
+public class PardusDownloaderTest {
+
+    private static final int READ_TIMEOUT = 300;
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[256 * 1024];
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean stopped = false;
+
+    @Before
+    public void startServer() throws IOException {
+        new Random(1).nextBytes(content);
+        serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            while (!stopped) {
+                try (Socket socket = serverSocket.accept()) {
+                    serve(socket);
+                } catch (IOException ignored) {
+                    // closed by the client or by stopServer
+                }
+            }
+        }, "PardusDownloaderTest");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        stopped = true;
+        serverSocket.close();
+    }
+
+    /**
+     * Answers one request per connection. The first response stalls after half of the file.
+     */
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII));
+        long start = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("range: bytes=")) {
+                start = Long.parseLong(line.substring(13, line.indexOf('-')));
+            }
+        }
+        boolean stall = requests.incrementAndGet() == 1;
+        String status = (start == 0) ? "200 OK" : "206 Partial Content";
+        String headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Length: " + (content.length - start) + "\r\n"
+                + ((start == 0) ? "" : "Content-Range: bytes " + start + "-" + (content.length - 1) + "/"
+                + content.length + "\r\n")
+                + "Accept-Ranges: bytes\r\n"
+                + "ETag: " + ETAG + "\r\n"
+                + "Connection: close\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        if (stall) {
+            out.write(content, 0, content.length / 2);
+            out.flush();
+            try {
+                Thread.sleep(READ_TIMEOUT * 4);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        out.write(content, (int) start, (int) (content.length - start));
+        out.flush();
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/img.zip";
+    }
+
+    @Test
+    public void resumesDownloadAfterReadTimeout() throws Exception {
+        File target = new File(folder.getRoot(), "img.zip");
+        PardusDownloader downloader = new PardusDownloader(getUrl(), target, null);
+        downloader.setTimeouts(READ_TIMEOUT, READ_TIMEOUT);
+        assertTrue(downloader.download(1));
+        assertEquals(2, requests.get());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(PardusImagePackManifest.toHex(MessageDigest.getInstance("SHA-256").digest(content)),
+                downloader.getSha256());
+        assertFalse(new File(target.getPath() + ".journal").exists());
+    }
+
+    @Test
+    public void resumesStreamAfterReadTimeout() throws IOException {
+        PardusDownloader downloader = new PardusDownloader(getUrl(), null, null);
+        downloader.setTimeouts(READ_TIMEOUT, READ_TIMEOUT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = downloader.openStream()) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+        assertEquals(2, requests.get());
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Updates an image pack from a local server publishing the fixture manifest and the files it lists.
+ */
+public class PardusImagePackManifestTest {
+
+    private static final String NEW_FILE = "sectors/space tile#2.png";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean stopped = false;
+
+    @Before
+    public void startServer() throws IOException {
+        files.put("/nfo_manifest", readFixture());
+        files.put("/nfo_upd", bytes("2026101701"));
+        files.put("/sectors/a.png", bytes("tile a"));
+        files.put("/" + NEW_FILE, bytes("tile with a space"));
+        files.put("/ships/b.png", bytes("tile b"));
+        serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            while (!stopped) {
+                try (Socket socket = serverSocket.accept()) {
+                    serve(socket);
+                } catch (IOException ignored) {
+                    // closed by the client or by stopServer
+                }
+            }
+        }, "PardusImagePackManifestTest");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        stopped = true;
+        serverSocket.close();
+    }
+
+    /**
+     * Answers one request per connection with the file at the decoded request path.
+     */
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII));
+        String requestLine = reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            // headers are ignored
+        }
+        String target = requestLine.split(" ")[1];
+        requested.add(target);
+        byte[] body = files.get(URLDecoder.decode(target, "UTF-8"));
+        String headers = (body == null) ? "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n"
+                : "HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write((headers + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readFixture() throws IOException {
+        try (InputStream in = PardusImagePackManifestTest.class.getResourceAsStream("/manifest/nfo_manifest")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private String getSrcUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the manifest of an installed older version of the image pack
+     */
+    private static PardusImagePackManifest installedManifest() {
+        PardusImagePackManifest local = new PardusImagePackManifest();
+        local.put("nfo_upd", new PardusImagePackManifest.Entry(10,
+                "0000000000000000000000000000000000000000000000000000000000000000"));
+        local.put("sectors/a.png", new PardusImagePackManifest.Entry(6,
+                "B98BEA4040986B7FC0012462592212E30C162BA342536C64E766DC92909C4940"));
+        local.put("ships/b.png", new PardusImagePackManifest.Entry(6,
+                "b98bea4040986b7fc0012462592212e30c162ba342536c64e766dc92909c4940"));
+        return local;
+    }
+
+    @Test
+    public void fetchesOnlyChangedFiles() throws IOException {
+        File root = folder.newFolder("layer");
+        PardusImagePackManifest remote = PardusImagePackManifest.fetch(getSrcUrl());
+        List<String> changed = installedManifest().diff(remote);
+        assertEquals(Arrays.asList("nfo_upd", NEW_FILE, "ships/b.png"), changed);
+        for (String path : changed) {
+            assertTrue(path, remote.fetchFile(getSrcUrl(), root, path));
+        }
+        assertArrayEquals(bytes("tile with a space"), Files.readAllBytes(new File(root, NEW_FILE).toPath()));
+        assertArrayEquals(bytes("tile b"), Files.readAllBytes(new File(root, "ships/b.png").toPath()));
+        assertTrue(requested.contains("/sectors/space%20tile%232.png"));
+        assertFalse(requested.contains("/sectors/a.png"));
+        assertFalse(new File(root, "sectors/a.png").exists());
+    }
+
+    @Test
+    public void rejectsFileNotMatchingManifest() throws IOException {
+        File root = folder.newFolder("layer");
+        PardusImagePackManifest remote = PardusImagePackManifest.fetch(getSrcUrl());
+        files.put("/ships/b.png", bytes("tile c"));
+        assertFalse(remote.fetchFile(getSrcUrl(), root, "ships/b.png"));
+        assertFalse(new File(root, "ships/b.png").exists());
+        assertFalse(new File(root, "ships/b.png.part").exists());
+    }
+
+    @Test
+    public void encodesEachPathSegment() {
+        assertEquals("sectors/space%20tile%232.png", PardusImagePackManifest.encodePath(NEW_FILE));
+        assertEquals("a%2Bb/100%25.png", PardusImagePackManifest.encodePath("a+b/100%.png"));
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time PardusMessageCounts and the regular expressions it replaced take to parse the msgFrame
+ * fixtures. Not part of the regular test run; remove the annotation and run
+ * {@code ./gradlew test --tests '*PardusMessageCountsBenchmark' -i} to see the printed results.
+ */
+@Ignore("benchmark, run on demand")
+public class PardusMessageCountsBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 5;
+
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void compareWithRegex() throws IOException {
+        String[] msgFrames = new String[PardusMessageCountsTest.FIXTURES.length];
+        for (int i = 0; i < msgFrames.length; i++) {
+            msgFrames[i] = PardusMessageCountsTest.readFixture(PardusMessageCountsTest.FIXTURES[i]);
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRegex(msgFrames);
+            runScanner(msgFrames);
+        }
+        long regexNanos = Long.MAX_VALUE;
+        long scannerNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            runRegex(msgFrames);
+            regexNanos = Math.min(regexNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            runScanner(msgFrames);
+            scannerNanos = Math.min(scannerNanos, System.nanoTime() - start);
+        }
+        int operations = ITERATIONS * msgFrames.length;
+        System.out.println(String.format(Locale.ENGLISH, "msgFrame parsing: regex %.2f us/op, scanner %.2f us/op",
+                regexNanos / 1000.0 / operations, scannerNanos / 1000.0 / operations));
+        assertTrue(regexNanos > 0 && scannerNanos > 0);
+    }
+
+    private static int runRegex(String[] msgFrames) throws IOException {
+        int length = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String msgFrame : msgFrames) {
+                length += RegexMessageParser.parse(new StringReader(msgFrame)).length();
+            }
+        }
+        return length;
+    }
+
+    private static int runScanner(String[] msgFrames) throws IOException {
+        int length = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String msgFrame : msgFrames) {
+                length += PardusMessageCounts.parse(new StringReader(msgFrame)).format().length();
+            }
+        }
+        return length;
+    }
+
+}
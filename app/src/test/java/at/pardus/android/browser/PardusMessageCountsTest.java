@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PardusMessageCountsTest {
+
+    static final String[] FIXTURES = { "full.html", "no_status.html", "status_markup.html", "logged_out.html" };
+
+    /**
+     * @return the content of a msgFrame fixture
+     */
+    static String readFixture(String name) throws IOException {
+        try (InputStream in = PardusMessageCountsTest.class.getResourceAsStream("/msgframe/" + name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void matchesRegexParsing() throws IOException {
+        for (String fixture : FIXTURES) {
+            String msgFrame = readFixture(fixture);
+            assertEquals(fixture, RegexMessageParser.parse(new StringReader(msgFrame)),
+                    PardusMessageCounts.parse(new StringReader(msgFrame)).format());
+        }
+    }
+
+    @Test
+    public void readsAllCounters() throws IOException {
+        PardusMessageCounts counts = PardusMessageCounts.parse(new StringReader(readFixture("full.html")));
+        assertEquals(3, counts.pm);
+        assertEquals(12, counts.am);
+        assertEquals(0, counts.trade);
+        assertEquals(1, counts.mission);
+        assertEquals(0, counts.pay);
+        assertEquals(2, counts.combat);
+        assertEquals(0, counts.mo);
+        assertEquals("Server restart in 15 minutes.", counts.status);
+        assertTrue(counts.isComplete());
+    }
+
+    @Test
+    public void keepsFirstValidCounter() throws IOException {
+        PardusMessageCounts counts = PardusMessageCounts.parse(new StringReader(readFixture("status_markup.html")));
+        assertEquals(127, counts.pm);
+        assertEquals(4, counts.am);
+        assertEquals(PardusMessageCounts.UNKNOWN, counts.mission);
+        assertEquals("News: Jäger &amp; Sammler event started trailing", counts.status);
+    }
+
+    @Test
+    public void findsNothingWhenLoggedOut() throws IOException {
+        PardusMessageCounts counts = PardusMessageCounts.parse(new StringReader(readFixture("logged_out.html")));
+        assertEquals(PardusMessageCounts.UNKNOWN, counts.pm);
+        assertEquals(PardusMessageCounts.UNKNOWN, counts.mo);
+        assertNull(counts.status);
+        assertEquals("", counts.format());
+    }
+
+    @Test
+    public void mergesPartialCounters() throws IOException {
+        PardusMessageCounts full = PardusMessageCounts.parse(new StringReader(readFixture("full.html")));
+        PardusMessageCounts partial = PardusMessageCounts.parse(new StringReader(
+                "<span id=\"new_msg\">5</span>"));
+        PardusMessageCounts merged = partial.mergedInto(full);
+        assertEquals(5, merged.pm);
+        assertEquals(12, merged.am);
+        assertEquals(2, merged.combat);
+        assertEquals("Server restart in 15 minutes.", merged.status);
+        assertTrue(merged.isComplete());
+        assertEquals(PardusMessageCounts.UNKNOWN, partial.mergedInto(null).am);
+    }
+
+    @Test
+    public void stopsReadingOnceComplete() throws IOException {
+        String msgFrame = readFixture("full.html");
+        // fails the test if read to the end
+        Reader endless = new Reader() {
+
+            private int pos = 0;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                for (int i = 0; i < len; i++) {
+                    cbuf[off + i] = (pos < msgFrame.length()) ? msgFrame.charAt(pos) : ' ';
+                    pos++;
+                }
+                if (pos > 1024 * 1024) {
+                    throw new AssertionError("Read past the counters");
+                }
+                return len;
+            }
+
+            @Override
+            public void close() {
+            }
+
+        };
+        assertTrue(PardusMessageCounts.parse(endless).isComplete());
+    }
+
+}
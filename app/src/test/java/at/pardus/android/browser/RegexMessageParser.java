@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2026 Werner Bayer
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package at.pardus.android.browser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression based msgFrame parsing PardusMessageCounts replaced, kept as reference for its output and
+ * speed.
+ */
+final class RegexMessageParser {
+
+    private static final Pattern patternStatus = Pattern.compile("px;'> (.*)</font></td></tr></table>");
+
+    private static final Pattern patternPm = Pattern.compile("<span id=\"new_msg\">(\\d+)</span>");
+
+    private static final Pattern patternAm = Pattern.compile("<span id=\"new_amsg\">(\\d+)</span>");
+
+    private static final Pattern patternTrade = Pattern.compile("<span id=\"new_tl\">(\\d+)</span>");
+
+    private static final Pattern patternMission = Pattern.compile("<span id=\"new_ml\">(\\d+)</span>");
+
+    private static final Pattern patternPay = Pattern.compile("<span id=\"new_pl\">(\\d+)</span>");
+
+    private static final Pattern patternCombat = Pattern.compile("<span id=\"new_cl\">(\\d+)</span>");
+
+    private static final Pattern patternMo = Pattern.compile("<span id=\"new_mo\">(\\d+)</span>");
+
+    private RegexMessageParser() {
+    }
+
+    /**
+     * Reads the whole msgFrame and parses it the way PardusMessageChecker did before.
+     *
+     * @param reader
+     *         the msgFrame
+     * @return the text to display
+     * @throws IOException
+     *         if reading fails
+     */
+    static String parse(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[2048];
+        int i;
+        while ((i = reader.read(buffer, 0, buffer.length)) >= 0) {
+            if (i > 0) {
+                sb.append(buffer, 0, i);
+            }
+        }
+        String response = sb.toString();
+        Matcher matcher;
+        String text = "";
+        matcher = patternStatus.matcher(response);
+        if (matcher.find()) {
+            text += matcher.group(1).replaceAll("<.*?>", "") + "\n";
+        }
+        matcher = patternPm.matcher(response);
+        if (matcher.find()) {
+            text += "PM:" + matcher.group(1) + " ";
+        }
+        matcher = patternAm.matcher(response);
+        if (matcher.find()) {
+            text += "AM:" + matcher.group(1) + " ";
+        }
+        matcher = patternTrade.matcher(response);
+        if (matcher.find()) {
+            text += "Trade:" + matcher.group(1) + " ";
+        }
+        matcher = patternMission.matcher(response);
+        if (matcher.find()) {
+            text += "Mission:" + matcher.group(1) + " ";
+        }
+        matcher = patternPay.matcher(response);
+        if (matcher.find()) {
+            text += "Pay:" + matcher.group(1) + " ";
+        }
+        matcher = patternCombat.matcher(response);
+        if (matcher.find()) {
+            text += "Combat:" + matcher.group(1) + " ";
+        }
+        matcher = patternMo.matcher(response);
+        if (matcher.find()) {
+            text += "MO:" + matcher.group(1) + " ";
+        }
+        return text;
+    }
+
+}